@@ -31,7 +31,20 @@ public class Configuration {
 	BootstrapConfiguration bootConfiguration = new BootstrapConfiguration(bootServerAddress, 60000, 4000, 3, 30000, webPort, webPort);
 	CyclonConfiguration cyclonConfiguration = new CyclonConfiguration(5, 10, 1000, 500000, new BigInteger("2").pow(13), 20);
 	TManConfiguration tmanConfiguration = new TManConfiguration(1000);
-	SearchConfiguration aggregationConfiguration = new SearchConfiguration(1000);
+
+	// The optional index propagation modes are off by default, so that a plain run measures the baseline.
+	// Each is enabled for a run through the environment, like PEERS and SCENARIO:
+	// INDEX_ANTI_ENTROPY=true, INDEX_PUSH_FANOUT=<partners> (INDEX_PUSH_TTL=<hops>, 4 by default),
+	// INDEX_SNAPSHOT_THRESHOLD=<entries> and INDEX_ADD_BATCH_SIZE=<adds>
+	boolean antiEntropy = "true".equals(System.getenv("INDEX_ANTI_ENTROPY"));
+	int pushFanout = System.getenv("INDEX_PUSH_FANOUT") != null ? Integer.parseInt(System.getenv("INDEX_PUSH_FANOUT")) : 0;
+	int pushTtl = System.getenv("INDEX_PUSH_TTL") != null ? Integer.parseInt(System.getenv("INDEX_PUSH_TTL")) : 4;
+	int snapshotThreshold = System.getenv("INDEX_SNAPSHOT_THRESHOLD") != null ? Integer.parseInt(System.getenv("INDEX_SNAPSHOT_THRESHOLD")) : 0;
+	int addBatchSize = System.getenv("INDEX_ADD_BATCH_SIZE") != null ? Integer.parseInt(System.getenv("INDEX_ADD_BATCH_SIZE")) : 1;
+
+	SearchConfiguration aggregationConfiguration = new SearchConfiguration(1000, 32, 100, 1,
+			SearchConfiguration.STORAGE_RAM, "index-data", antiEntropy, pushFanout, pushTtl, 256, 4, snapshotThreshold,
+			false, addBatchSize, 20, 10, 10000, 2, 60000, 0.2, 6, 10000, 300000);
         
 	public void set() throws IOException {
 		String c = File.createTempFile("bootstrap.", ".conf").getAbsolutePath();
@@ -8,23 +8,324 @@ import java.io.Writer;
 import java.util.Properties;
 
 public final class SearchConfiguration {
+	/**
+	 * the ways the local index of a peer can be stored.
+	 */
+	public static final String STORAGE_RAM = "ram";
+	public static final String STORAGE_MMAP = "mmap";
+
 	private final long period;
 
+	/**
+	 * the maximum number of index adds the leader queues before indexing
+	 * them together.
+	 */
+	private final int leaderAddBatchSize;
+
+	/**
+	 * the number of milliseconds the leader waits for more index adds
+	 * before indexing a batch that isn't full.
+	 */
+	private final long leaderAddBatchWindow;
+
+	/**
+	 * the number of partitions the local index of each peer is split into.
+	 * Queries search all partitions in parallel. Defaults to 1: a speedup
+	 * from more partitions has not been shown, see PartitionedQueryBenchmark.
+	 */
+	private final int indexPartitions;
+
+	/**
+	 * where the local index is stored: STORAGE_RAM keeps it on the heap,
+	 * STORAGE_MMAP keeps it in memory-mapped files under indexDataPath.
+	 */
+	private final String indexStorage;
+
+	/**
+	 * the directory under which each peer stores its index, when stored
+	 * on disk.
+	 */
+	private final String indexDataPath;
+
+	/**
+	 * true if peers compare digests of index id ranges when exchanging
+	 * entries, and repair the ranges they are missing entries in.
+	 */
+	private final boolean antiEntropy;
+
+	/**
+	 * the number of partners the leader pushes new index entries to, and
+	 * that peers receiving new entries through a push forward them to.
+	 * 0 disables pushing, leaving new entries to spread by pulling only.
+	 */
+	private final int indexPushFanout;
+
+	/**
+	 * the number of hops pushed index entries travel before they are no
+	 * longer forwarded.
+	 */
+	private final int indexPushTtl;
+
+	/**
+	 * the maximum number of index ids covered by one chunk when index
+	 * entries are transferred between peers.
+	 */
+	private final int indexTransferChunkSize;
+
+	/**
+	 * the number of chunks a peer lets a partner send it ahead of the
+	 * chunks it has processed.
+	 */
+	private final int indexTransferWindow;
+
+	/**
+	 * the number of entries a peer with an empty index must be behind by
+	 * to copy a snapshot of a partner's index files instead of pulling
+	 * the entries. 0 disables snapshot transfers.
+	 */
+	private final int indexSnapshotThreshold;
+
+	/**
+	 * true if the leader analyzes the title of each new index entry and
+	 * propagates the tokens with the entry, so that peers index the tokens
+	 * instead of analyzing the title again.
+	 */
+	private final boolean indexPreAnalyzed;
+
+	/**
+	 * the maximum number of index adds a peer sends to its next hop
+	 * towards the leader in one request. 1 disables batching, sending
+	 * one request per add.
+	 */
+	private final int indexAddBatchSize;
+
+	/**
+	 * the number of milliseconds a peer waits for more index adds before
+	 * sending a batch that isn't full.
+	 */
+	private final long indexAddBatchLinger;
+
+	/**
+	 * the number of peers closest to the top of the gradient that each
+	 * peer keeps track of to route index adds towards the leader.
+	 */
+	private final int topmostPartners;
+
+	/**
+	 * the number of milliseconds before the first attempt of an index add
+	 * is retried, until the round trip time to the leader has been
+	 * observed. After that, it is derived from the round trip time.
+	 */
+	private final long indexAddRetryInitialTimeout;
+
+	/**
+	 * the factor the timeout of an index add grows by for every attempt.
+	 */
+	private final double indexAddRetryMultiplier;
+
+	/**
+	 * the maximum number of milliseconds before an index add attempt is
+	 * retried.
+	 */
+	private final long indexAddRetryMaxTimeout;
+
+	/**
+	 * the fraction, between 0 and 1, that the timeouts of index add
+	 * attempts are randomly moved up or down by.
+	 */
+	private final double indexAddRetryJitter;
+
+	/**
+	 * the number of attempts made at an index add before giving up.
+	 */
+	private final int indexAddRetryMaxAttempts;
+
+	/**
+	 * the maximum number of recently accepted index adds the leader
+	 * remembers, to answer retries of them instead of indexing them again.
+	 */
+	private final int indexAddDedupSize;
+
+	/**
+	 * the number of milliseconds the leader remembers an accepted index
+	 * add. Should outlast all retries of an add.
+	 */
+	private final long indexAddDedupTtl;
+
 //-------------------------------------------------------------------
-	public SearchConfiguration(long period) {
+	public SearchConfiguration(long period, int leaderAddBatchSize, long leaderAddBatchWindow, int indexPartitions,
+			String indexStorage, String indexDataPath, boolean antiEntropy, int indexPushFanout, int indexPushTtl,
+			int indexTransferChunkSize, int indexTransferWindow, int indexSnapshotThreshold, boolean indexPreAnalyzed,
+			int indexAddBatchSize, long indexAddBatchLinger, int topmostPartners,
+			long indexAddRetryInitialTimeout, double indexAddRetryMultiplier, long indexAddRetryMaxTimeout,
+			double indexAddRetryJitter, int indexAddRetryMaxAttempts, int indexAddDedupSize, long indexAddDedupTtl) {
 		super();
 		this.period = period;
+		this.leaderAddBatchSize = leaderAddBatchSize;
+		this.leaderAddBatchWindow = leaderAddBatchWindow;
+		this.indexPartitions = indexPartitions;
+		this.indexStorage = indexStorage;
+		this.indexDataPath = indexDataPath;
+		this.antiEntropy = antiEntropy;
+		this.indexPushFanout = indexPushFanout;
+		this.indexPushTtl = indexPushTtl;
+		this.indexTransferChunkSize = indexTransferChunkSize;
+		this.indexTransferWindow = indexTransferWindow;
+		this.indexSnapshotThreshold = indexSnapshotThreshold;
+		this.indexPreAnalyzed = indexPreAnalyzed;
+		this.indexAddBatchSize = indexAddBatchSize;
+		this.indexAddBatchLinger = indexAddBatchLinger;
+		this.topmostPartners = topmostPartners;
+		this.indexAddRetryInitialTimeout = indexAddRetryInitialTimeout;
+		this.indexAddRetryMultiplier = indexAddRetryMultiplier;
+		this.indexAddRetryMaxTimeout = indexAddRetryMaxTimeout;
+		this.indexAddRetryJitter = indexAddRetryJitter;
+		this.indexAddRetryMaxAttempts = indexAddRetryMaxAttempts;
+		this.indexAddDedupSize = indexAddDedupSize;
+		this.indexAddDedupTtl = indexAddDedupTtl;
 	}
 
 //-------------------------------------------------------------------
 	public long getPeriod() {
 		return this.period;
 	}
+
+//-------------------------------------------------------------------
+	public int getLeaderAddBatchSize() {
+		return this.leaderAddBatchSize;
+	}
+
+//-------------------------------------------------------------------
+	public long getLeaderAddBatchWindow() {
+		return this.leaderAddBatchWindow;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexPartitions() {
+		return this.indexPartitions;
+	}
+
+//-------------------------------------------------------------------
+	public String getIndexStorage() {
+		return this.indexStorage;
+	}
+
+//-------------------------------------------------------------------
+	public String getIndexDataPath() {
+		return this.indexDataPath;
+	}
+
+//-------------------------------------------------------------------
+	public boolean isAntiEntropy() {
+		return this.antiEntropy;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexPushFanout() {
+		return this.indexPushFanout;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexPushTtl() {
+		return this.indexPushTtl;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexTransferChunkSize() {
+		return this.indexTransferChunkSize;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexTransferWindow() {
+		return this.indexTransferWindow;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexSnapshotThreshold() {
+		return this.indexSnapshotThreshold;
+	}
+
+//-------------------------------------------------------------------
+	public boolean isIndexPreAnalyzed() {
+		return this.indexPreAnalyzed;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexAddBatchSize() {
+		return this.indexAddBatchSize;
+	}
+
+//-------------------------------------------------------------------
+	public long getIndexAddBatchLinger() {
+		return this.indexAddBatchLinger;
+	}
+
+//-------------------------------------------------------------------
+	public int getTopmostPartners() {
+		return this.topmostPartners;
+	}
+
+//-------------------------------------------------------------------
+	public long getIndexAddRetryInitialTimeout() {
+		return this.indexAddRetryInitialTimeout;
+	}
+
+//-------------------------------------------------------------------
+	public double getIndexAddRetryMultiplier() {
+		return this.indexAddRetryMultiplier;
+	}
+
+//-------------------------------------------------------------------
+	public long getIndexAddRetryMaxTimeout() {
+		return this.indexAddRetryMaxTimeout;
+	}
+
+//-------------------------------------------------------------------
+	public double getIndexAddRetryJitter() {
+		return this.indexAddRetryJitter;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexAddRetryMaxAttempts() {
+		return this.indexAddRetryMaxAttempts;
+	}
+
+//-------------------------------------------------------------------
+	public int getIndexAddDedupSize() {
+		return this.indexAddDedupSize;
+	}
+
+//-------------------------------------------------------------------
+	public long getIndexAddDedupTtl() {
+		return this.indexAddDedupTtl;
+	}
 	
 //-------------------------------------------------------------------
 	public void store(String file) throws IOException {
 		Properties p = new Properties();
 		p.setProperty("period", "" + period);
+		p.setProperty("leader.add.batch.size", "" + leaderAddBatchSize);
+		p.setProperty("leader.add.batch.window", "" + leaderAddBatchWindow);
+		p.setProperty("index.partitions", "" + indexPartitions);
+		p.setProperty("index.storage", indexStorage);
+		p.setProperty("index.data.path", indexDataPath);
+		p.setProperty("index.anti.entropy", "" + antiEntropy);
+		p.setProperty("index.push.fanout", "" + indexPushFanout);
+		p.setProperty("index.push.ttl", "" + indexPushTtl);
+		p.setProperty("index.transfer.chunk.size", "" + indexTransferChunkSize);
+		p.setProperty("index.transfer.window", "" + indexTransferWindow);
+		p.setProperty("index.snapshot.threshold", "" + indexSnapshotThreshold);
+		p.setProperty("index.pre.analyzed", "" + indexPreAnalyzed);
+		p.setProperty("index.add.batch.size", "" + indexAddBatchSize);
+		p.setProperty("index.add.batch.linger", "" + indexAddBatchLinger);
+		p.setProperty("index.add.topmost.partners", "" + topmostPartners);
+		p.setProperty("index.add.retry.initial.timeout", "" + indexAddRetryInitialTimeout);
+		p.setProperty("index.add.retry.multiplier", "" + indexAddRetryMultiplier);
+		p.setProperty("index.add.retry.max.timeout", "" + indexAddRetryMaxTimeout);
+		p.setProperty("index.add.retry.jitter", "" + indexAddRetryJitter);
+		p.setProperty("index.add.retry.max.attempts", "" + indexAddRetryMaxAttempts);
+		p.setProperty("index.add.dedup.size", "" + indexAddDedupSize);
+		p.setProperty("index.add.dedup.ttl", "" + indexAddDedupTtl);
 
 		Writer writer = new FileWriter(file);
 		p.store(writer, "se.sics.kompics.p2p.overlay.application");
@@ -37,7 +338,34 @@ public final class SearchConfiguration {
 		p.load(reader);
 
 		long period = Long.parseLong(p.getProperty("period"));
+		int leaderAddBatchSize = Integer.parseInt(p.getProperty("leader.add.batch.size"));
+		long leaderAddBatchWindow = Long.parseLong(p.getProperty("leader.add.batch.window"));
+		int indexPartitions = Integer.parseInt(p.getProperty("index.partitions"));
+		String indexStorage = p.getProperty("index.storage");
+		String indexDataPath = p.getProperty("index.data.path");
+		boolean antiEntropy = Boolean.parseBoolean(p.getProperty("index.anti.entropy"));
+		int indexPushFanout = Integer.parseInt(p.getProperty("index.push.fanout"));
+		int indexPushTtl = Integer.parseInt(p.getProperty("index.push.ttl"));
+		int indexTransferChunkSize = Integer.parseInt(p.getProperty("index.transfer.chunk.size"));
+		int indexTransferWindow = Integer.parseInt(p.getProperty("index.transfer.window"));
+		int indexSnapshotThreshold = Integer.parseInt(p.getProperty("index.snapshot.threshold"));
+		boolean indexPreAnalyzed = Boolean.parseBoolean(p.getProperty("index.pre.analyzed"));
+		int indexAddBatchSize = Integer.parseInt(p.getProperty("index.add.batch.size"));
+		long indexAddBatchLinger = Long.parseLong(p.getProperty("index.add.batch.linger"));
+		int topmostPartners = Integer.parseInt(p.getProperty("index.add.topmost.partners"));
+		long indexAddRetryInitialTimeout = Long.parseLong(p.getProperty("index.add.retry.initial.timeout"));
+		double indexAddRetryMultiplier = Double.parseDouble(p.getProperty("index.add.retry.multiplier"));
+		long indexAddRetryMaxTimeout = Long.parseLong(p.getProperty("index.add.retry.max.timeout"));
+		double indexAddRetryJitter = Double.parseDouble(p.getProperty("index.add.retry.jitter"));
+		int indexAddRetryMaxAttempts = Integer.parseInt(p.getProperty("index.add.retry.max.attempts"));
+		int indexAddDedupSize = Integer.parseInt(p.getProperty("index.add.dedup.size"));
+		long indexAddDedupTtl = Long.parseLong(p.getProperty("index.add.dedup.ttl"));
 
-		return new SearchConfiguration(period);
+		return new SearchConfiguration(period, leaderAddBatchSize, leaderAddBatchWindow, indexPartitions,
+				indexStorage, indexDataPath, antiEntropy, indexPushFanout, indexPushTtl,
+				indexTransferChunkSize, indexTransferWindow, indexSnapshotThreshold, indexPreAnalyzed,
+				indexAddBatchSize, indexAddBatchLinger, topmostPartners,
+				indexAddRetryInitialTimeout, indexAddRetryMultiplier, indexAddRetryMaxTimeout,
+				indexAddRetryJitter, indexAddRetryMaxAttempts, indexAddDedupSize, indexAddDedupTtl);
 	}
 }
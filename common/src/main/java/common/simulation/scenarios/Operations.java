@@ -12,6 +12,7 @@ import se.sics.kompics.p2p.experiment.dsl.adaptor.Operation1;
 public class Operations {
     private static int numberOfPeers = System.getenv("PEERS") != null ? Integer.parseInt(System.getenv("PEERS")) : 200;
     private static BigInteger peerId = new BigInteger(numberOfPeers + "").add(BigInteger.ONE);
+    private static BigInteger latePeerId = new BigInteger(numberOfPeers + "");
 //-------------------------------------------------------------------
 	public static Operation1<PeerJoin, BigInteger> peerJoin(final int num) {
 		return new Operation1<PeerJoin, BigInteger>() {
@@ -22,6 +23,19 @@ public class Operations {
 		};
 	}
 
+//-------------------------------------------------------------------
+	/**
+	 * Join a peer after the initial peers, with an id below all of them in the gradient
+	 */
+	public static Operation1<PeerJoin, BigInteger> latePeerJoin(final int num) {
+		return new Operation1<PeerJoin, BigInteger>() {
+			public PeerJoin generate(BigInteger id) {
+                latePeerId = latePeerId.add(BigInteger.ONE);
+				return new PeerJoin(latePeerId, num);
+			}
+		};
+	}
+
 //-------------------------------------------------------------------
 	public static Operation1<PeerFail, BigInteger> peerFail(final BigInteger staticId) {
         return new Operation1<PeerFail, BigInteger>() {
@@ -0,0 +1,50 @@
+package common.simulation.scenarios;
+
+import se.sics.kompics.p2p.experiment.dsl.SimulationScenario;
+
+import java.math.BigInteger;
+
+/**
+ * Catch-up scenario: after the index has grown to a large backlog, new peers join and have to transfer all of it
+ * Measures the chunked index transfers reported by Snapshot
+ */
+@SuppressWarnings("serial")
+public class Scenario3 extends Scenario {
+    private static int numberOfPeers = System.getenv("PEERS") != null ? Integer.parseInt(System.getenv("PEERS")) : 200;
+    private static int numberOfEntries = System.getenv("ENTRIES") != null ? Integer.parseInt(System.getenv("ENTRIES")) : 2000;
+    private static int numberOfLatePeers = System.getenv("LATE_PEERS") != null ? Integer.parseInt(System.getenv("LATE_PEERS")) : 20;
+	private static SimulationScenario scenario = new SimulationScenario() {{
+
+		StochasticProcess process1 = new StochasticProcess() {{
+			eventInterArrivalTime(constant(50));
+			raise(numberOfPeers, Operations.peerJoin(5), uniform(13));
+		}};
+
+		// Index measurements need the second leader to be elected, as in Scenario1
+		StochasticProcess process2 = new StochasticProcess() {{
+			eventInterArrivalTime(constant(100));
+			raise(1, Operations.peerFail(new BigInteger("1")), uniform(13));
+		}};
+
+        StochasticProcess process3 = new StochasticProcess() {{
+            eventInterArrivalTime(constant(5));
+            raise(numberOfEntries, Operations.addIndexEntry("key", "value"), uniform(13));
+        }};
+
+        StochasticProcess process4 = new StochasticProcess() {{
+            eventInterArrivalTime(constant(50));
+            raise(numberOfLatePeers, Operations.latePeerJoin(5), uniform(13));
+        }};
+
+		process1.start();
+
+		process2.startAfterTerminationOf(100000, process1);
+        process3.startAfterTerminationOf(100000, process2);
+        process4.startAfterTerminationOf(1, process3);
+	}};
+
+//-------------------------------------------------------------------
+	public Scenario3() {
+		super(scenario);
+	}
+}
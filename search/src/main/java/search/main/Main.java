@@ -4,13 +4,15 @@ import search.simulator.core.SearchSimulationMain;
 import common.configuration.Configuration;
 import common.simulation.scenarios.Scenario;
 import common.simulation.scenarios.Scenario1;
+import common.simulation.scenarios.Scenario3;
 
 public class Main {
 	public static void main(String[] args) throws Throwable {
 		Configuration configuration = new Configuration();
 		configuration.set();
 		
-		Scenario scenario = new Scenario1();
+		// SCENARIO=3 runs the catch-up scenario instead of the default one
+		Scenario scenario = "3".equals(System.getenv("SCENARIO")) ? new Scenario3() : new Scenario1();
 		scenario.setSeed(System.currentTimeMillis());
 		scenario.getScenario().execute(SearchSimulationMain.class);
 	}
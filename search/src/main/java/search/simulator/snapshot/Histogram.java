@@ -0,0 +1,44 @@
+package search.simulator.snapshot;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts recorded values in power-of-two buckets. A value v falls in the bucket of the highest power of two <= v
+ */
+public class Histogram {
+    private final TreeMap<Long, Integer> buckets = new TreeMap<Long, Integer>();
+    private int count = 0;
+    private long sum = 0;
+
+    public void record(long value) {
+        long bucket = value <= 0 ? 0 : Long.highestOneBit(value);
+        Integer bucketCount = buckets.get(bucket);
+        buckets.put(bucket, bucketCount == null ? 1 : bucketCount + 1);
+        count++;
+        sum += value;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Format as "<bucket>:<count> ..." in bucket order
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Integer> bucket : buckets.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(bucket.getKey()).append(':').append(bucket.getValue());
+        }
+        return sb.toString();
+    }
+}
@@ -4,6 +4,8 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import common.peer.PeerAddress;
 import search.system.peer.search.Search;
@@ -46,6 +48,21 @@ public class Snapshot {
     // Number of messages sent concerning the add of a new entry
     private static int indexAddMessages = 0;
 
+    // Index add messages sent and adds acknowledged over the whole simulation
+    private static long indexAddMessagesTotal = 0;
+    private static long indexAddsCompleted = 0;
+
+    // Adds to a cached leader address that timed out, making the peer fall back to routing up the gradient
+    private static int cachedLeaderTimeouts = 0;
+
+    // Retried index add attempts, adds given up on, and the number of adds acknowledged after each number of attempts
+    private static int indexAddRetries = 0;
+    private static int indexAddsGivenUp = 0;
+    private static TreeMap<Integer, Integer> indexAddAttempts = new TreeMap<Integer, Integer>();
+
+    // Index adds the leader had already accepted, answered instead of indexed again
+    private static int duplicateIndexAddsAnswered = 0;
+
     // Number of messages send concerning dissemination of index entries
     private static int indexPropagationMessages = 0;
 
@@ -55,6 +72,83 @@ public class Snapshot {
     // Second leader election messages
     private static int secondLeaderMessages = 0;
 
+    // Number of times a peer reopened its near-real-time lucene searcher. The simulator's clock doesn't advance
+    // within a handler, so the time reopening takes is measured outside it, by SearcherReuseBenchmark
+    private static int indexSearcherReopens = 0;
+
+    // Query result cache lookups and evictions
+    private static int queryResultCacheHits = 0;
+    private static int queryResultCacheMisses = 0;
+    private static int queryResultCacheEvictions = 0;
+
+    // Parsed query cache hits. The parse time they save is measured outside the simulator, by ParsedQueryCacheBenchmark
+    private static int parsedQueryCacheHits = 0;
+
+    // The number of entries indexed per leader batch, and the time in ms each entry waited in the leader's queue
+    private static Histogram leaderAddBatchSizes = new Histogram();
+    private static Histogram leaderAddQueueLatencies = new Histogram();
+
+    // Entries sent in index exchange responses, and their encoded size. Encode and decode throughput is measured
+    // outside the simulator, by IndexEntryCodecBenchmark
+    private static long indexExchangeEntriesEncoded = 0;
+    private static long indexExchangeBytesEncoded = 0;
+
+    // Bytes of range digests sent for anti-entropy, and the number of missing entries repaired through them
+    private static long indexDigestBytes = 0;
+    private static int indexEntriesRepaired = 0;
+
+    // Push messages sent with new index entries, and the number of entries peers received first through a push
+    private static int indexPushMessages = 0;
+    private static int indexEntriesPushed = 0;
+
+    // Index exchange rounds where a peer pulled from several partners at once, and rounds where a caught up peer didn't probe
+    private static int indexExchangeParallelPullRounds = 0;
+    private static int indexExchangeParallelPulls = 0;
+    private static int indexExchangeProbesSkipped = 0;
+
+    // Up-to-date replies to index exchange requests, probes that weren't replied to in time, and exchange partners
+    // found dead through several unanswered probes in a row
+    private static int indexExchangeUpToDateReplies = 0;
+    private static int indexExchangeMissedProbes = 0;
+    private static int indexExchangeDeadPartners = 0;
+
+    // Index snapshots created for joining peers, their total size, and the number installed
+    private static int indexSnapshotsCreated = 0;
+    private static long indexSnapshotBytes = 0;
+    private static int indexSnapshotsInstalled = 0;
+
+    // Peers that started with an empty index and caught up with a backlog: the entries and the time in ms it took
+    private static Histogram catchUpEntries = new Histogram();
+    private static Histogram catchUpMillis = new Histogram();
+    private static Histogram snapshotCatchUpMillis = new Histogram();
+
+    // Encoded index exchange chunk cache lookups, and the most bytes of encoded chunks a peer's cache held
+    private static int encodedPageCacheHits = 0;
+    private static int encodedPageCacheMisses = 0;
+    private static long encodedPageCachePeakBytes = 0;
+
+    // Received index entries dropped because the peer already held them
+    private static int duplicateIndexEntriesDropped = 0;
+
+    // Received index entries indexed, without and with tokens from the leader
+    private static long receivedEntriesIndexed = 0;
+    private static long preAnalyzedEntriesIndexed = 0;
+
+    // Encoded index entries, their size, and the part of it taken by the tokens of pre-analyzed entries
+    private static long indexEntriesEncoded = 0;
+    private static long indexEntryBytesEncoded = 0;
+    private static long indexEntryTokenBytesEncoded = 0;
+
+    // Completed chunked transfers, and the entries, bytes and time they took in total
+    private static int indexTransfers = 0;
+    private static long indexTransferEntries = 0;
+    private static long indexTransferBytes = 0;
+    private static long indexTransferMillis = 0;
+
+    // The largest chunk received, and the most bytes a single transfer could have had in flight to a peer
+    private static int indexTransferMaxChunkBytes = 0;
+    private static long indexTransferPeakBufferedBytes = 0;
+
     public static boolean hasAllPeersJoined() {
         return allPeersJoined;
     }
@@ -140,10 +234,12 @@ public class Snapshot {
     private static void indexEntryPropagationComplete() {
         reportValue("indexPropagationComplete", getTicksSinceAllJoined() - getReportedValueAsInt("indexPropagationStart"));
         reportValue("indexPropagationTotalMessages", indexPropagationMessages);
+        reportIndexingMetrics();
         shutdownSimulation();
     }
 
     public static void addIndexEntryCompleted() {
+        indexAddsCompleted++;
         if(isReported("addIndexEntryInitiated") && !isReported("addIndexEntryCompleted")) {
             reportValue("addIndexEntryTotalMessages", indexAddMessages);
             reportValue("addIndexEntryCompleted", getTicksSinceAllJoined() - getReportedValueAsInt("addIndexEntryInitiated"));
@@ -157,12 +253,243 @@ public class Snapshot {
 
     public static void addIndexEntryMessageSent() {
         indexAddMessages++;
+        indexAddMessagesTotal++;
+    }
+
+    public static void indexAddRetried() {
+        indexAddRetries++;
+    }
+
+    public static void indexAddGivenUp() {
+        indexAddsGivenUp++;
+    }
+
+    public static void indexAddAcknowledged(int attempts) {
+        Integer count = indexAddAttempts.get(attempts);
+        indexAddAttempts.put(attempts, count == null ? 1 : count + 1);
+    }
+
+    public static void duplicateIndexAddAnswered() {
+        duplicateIndexAddsAnswered++;
+    }
+
+    public static void cachedLeaderTimedOut() {
+        cachedLeaderTimeouts++;
     }
 
     public static void addIndexPropagationMessageSent() {
         indexPropagationMessages++;
     }
 
+    public static void indexSearcherReopened() {
+        indexSearcherReopens++;
+    }
+
+    public static void queryResultCacheHit() {
+        queryResultCacheHits++;
+    }
+
+    public static void queryResultCacheMiss() {
+        queryResultCacheMisses++;
+    }
+
+    public static void queryResultCacheEviction() {
+        queryResultCacheEvictions++;
+    }
+
+    public static void parsedQueryCacheHit() {
+        parsedQueryCacheHits++;
+    }
+
+    public static void leaderAddBatchIndexed(int batchSize) {
+        leaderAddBatchSizes.record(batchSize);
+    }
+
+    public static void leaderAddQueued(long latency) {
+        leaderAddQueueLatencies.record(latency);
+    }
+
+    public static void indexExchangeEntriesEncoded(int entries, int bytes) {
+        indexExchangeEntriesEncoded += entries;
+        indexExchangeBytesEncoded += bytes;
+    }
+
+    public static void indexDigestBytesSent(int bytes) {
+        indexDigestBytes += bytes;
+    }
+
+    public static void indexEntriesRepaired(int entries) {
+        indexEntriesRepaired += entries;
+    }
+
+    public static void indexPushMessageSent() {
+        indexPushMessages++;
+    }
+
+    public static void indexEntriesPushed(int entries) {
+        indexEntriesPushed += entries;
+    }
+
+    public static void indexExchangeParallelPulls(int pulls) {
+        indexExchangeParallelPullRounds++;
+        indexExchangeParallelPulls += pulls;
+    }
+
+    public static void indexExchangeProbeSkipped() {
+        indexExchangeProbesSkipped++;
+    }
+
+    public static void indexExchangeUpToDateSent() {
+        indexExchangeUpToDateReplies++;
+    }
+
+    public static void indexExchangeProbeMissed() {
+        indexExchangeMissedProbes++;
+    }
+
+    public static void indexExchangePartnerDead() {
+        indexExchangeDeadPartners++;
+    }
+
+    public static void indexSnapshotCreated(long bytes) {
+        indexSnapshotsCreated++;
+        indexSnapshotBytes += bytes;
+    }
+
+    public static void indexSnapshotInstalled() {
+        indexSnapshotsInstalled++;
+    }
+
+    public static void emptyPeerCaughtUp(int entries, long millis, boolean viaSnapshot) {
+        catchUpEntries.record(entries);
+        if (viaSnapshot) {
+            snapshotCatchUpMillis.record(millis);
+        } else {
+            catchUpMillis.record(millis);
+        }
+    }
+
+    public static void encodedPageCacheHit() {
+        encodedPageCacheHits++;
+    }
+
+    public static void encodedPageCacheMiss() {
+        encodedPageCacheMisses++;
+    }
+
+    public static void encodedPageCacheFilled(long bytes) {
+        encodedPageCachePeakBytes = Math.max(encodedPageCachePeakBytes, bytes);
+    }
+
+    public static void duplicateIndexEntryDropped() {
+        duplicateIndexEntriesDropped++;
+    }
+
+    /**
+     * A batch of received entries was indexed. Batches where all entries carried tokens are counted as pre-analyzed
+     */
+    public static void receivedIndexEntriesIndexed(int entries, int preAnalyzed) {
+        if (preAnalyzed == entries) {
+            preAnalyzedEntriesIndexed += entries;
+        } else {
+            receivedEntriesIndexed += entries;
+        }
+    }
+
+    public static void indexEntriesEncoded(int entries, int bytes, int tokenBytes) {
+        indexEntriesEncoded += entries;
+        indexEntryBytesEncoded += bytes;
+        indexEntryTokenBytesEncoded += tokenBytes;
+    }
+
+    public static void indexTransferChunkReceived(int bytes, long bufferedBytes) {
+        indexTransferMaxChunkBytes = Math.max(indexTransferMaxChunkBytes, bytes);
+        indexTransferPeakBufferedBytes = Math.max(indexTransferPeakBufferedBytes, bufferedBytes);
+    }
+
+    public static void indexTransferCompleted(int entries, long bytes, long millis) {
+        if (entries == 0) {
+            return;
+        }
+        indexTransfers++;
+        indexTransferEntries += entries;
+        indexTransferBytes += bytes;
+        indexTransferMillis += millis;
+    }
+
+    /**
+     * Return the number of entries processed per second, or 0 if no time was measured
+     */
+    private static int entriesPerSecond(long entries, long nanos) {
+        return nanos == 0 ? 0 : (int)(entries * 1000000000L / nanos);
+    }
+
+    /**
+     * Format as "<value>:<count> ..." in value order
+     */
+    private static String formatCounts(TreeMap<Integer, Integer> counts) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(count.getKey()).append(':').append(count.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Report the local indexing counters, summed over all peers
+     */
+    private static void reportIndexingMetrics() {
+        reportValue("indexSearcherReopens", indexSearcherReopens);
+        reportValue("cachedLeaderTimeouts", cachedLeaderTimeouts);
+        reportValue("indexAddRetries", indexAddRetries);
+        reportValue("indexAddsGivenUp", indexAddsGivenUp);
+        reportValue("indexAddAttempts", formatCounts(indexAddAttempts));
+        reportValue("duplicateIndexAddsAnswered", duplicateIndexAddsAnswered);
+        reportValue("indexAddMessagesPerEntry", indexAddsCompleted == 0 ? "0" : String.format("%.2f", (double)indexAddMessagesTotal / indexAddsCompleted));
+        reportValue("queryResultCacheHits", queryResultCacheHits);
+        reportValue("queryResultCacheMisses", queryResultCacheMisses);
+        reportValue("queryResultCacheEvictions", queryResultCacheEvictions);
+        reportValue("parsedQueryCacheHits", parsedQueryCacheHits);
+        reportValue("leaderAddBatchSizes", leaderAddBatchSizes.toString());
+        reportValue("leaderAddQueueLatencies", leaderAddQueueLatencies.toString());
+        reportValue("indexExchangeBytes", (int)indexExchangeBytesEncoded);
+        reportValue("indexExchangeBytesPerEntry", indexExchangeEntriesEncoded == 0 ? "0" : String.format("%.1f", (double)indexExchangeBytesEncoded / indexExchangeEntriesEncoded));
+        reportValue("indexDigestBytes", (int)indexDigestBytes);
+        reportValue("indexEntriesRepaired", indexEntriesRepaired);
+        reportValue("indexPushMessages", indexPushMessages);
+        reportValue("indexEntriesPushed", indexEntriesPushed);
+        reportValue("indexExchangeParallelPullRounds", indexExchangeParallelPullRounds);
+        reportValue("indexExchangeParallelPulls", indexExchangeParallelPulls);
+        reportValue("indexExchangeProbesSkipped", indexExchangeProbesSkipped);
+        reportValue("indexExchangeUpToDateReplies", indexExchangeUpToDateReplies);
+        reportValue("indexExchangeMissedProbes", indexExchangeMissedProbes);
+        reportValue("indexExchangeDeadPartners", indexExchangeDeadPartners);
+        reportValue("indexSnapshotsCreated", indexSnapshotsCreated);
+        reportValue("indexSnapshotBytes", "" + indexSnapshotBytes);
+        reportValue("indexSnapshotsInstalled", indexSnapshotsInstalled);
+        reportValue("catchUpEntries", catchUpEntries.toString());
+        reportValue("catchUpMillis", catchUpMillis.toString());
+        reportValue("snapshotCatchUpMillis", snapshotCatchUpMillis.toString());
+        reportValue("encodedPageCacheHits", encodedPageCacheHits);
+        reportValue("encodedPageCacheMisses", encodedPageCacheMisses);
+        reportValue("encodedPageCacheHitRatio", encodedPageCacheHits + encodedPageCacheMisses == 0 ? "0" :
+                String.format("%.2f", (double)encodedPageCacheHits / (encodedPageCacheHits + encodedPageCacheMisses)));
+        reportValue("encodedPageCachePeakBytes", "" + encodedPageCachePeakBytes);
+        reportValue("duplicateIndexEntriesDropped", duplicateIndexEntriesDropped);
+        reportValue("analyzedEntriesIndexed", "" + receivedEntriesIndexed);
+        reportValue("preAnalyzedEntriesIndexed", "" + preAnalyzedEntriesIndexed);
+        reportValue("indexEntryBytesPerEntry", indexEntriesEncoded == 0 ? "0" : String.format("%.1f", (double)indexEntryBytesEncoded / indexEntriesEncoded));
+        reportValue("indexEntryTokenBytesPerEntry", indexEntriesEncoded == 0 ? "0" : String.format("%.1f", (double)indexEntryTokenBytesEncoded / indexEntriesEncoded));
+        reportValue("indexTransfers", indexTransfers);
+        reportValue("indexTransferEntriesPerSecond", entriesPerSecond(indexTransferEntries, indexTransferMillis * 1000000L));
+        reportValue("indexTransferBytesPerSecond", indexTransferMillis == 0 ? 0 : (int)(indexTransferBytes * 1000 / indexTransferMillis));
+        reportValue("indexTransferMaxChunkBytes", indexTransferMaxChunkBytes);
+        reportValue("indexTransferPeakBufferedBytes", "" + indexTransferPeakBufferedBytes);
+    }
+
     public static float getIndexDistPercentage() {
         PeerAddress[] peersList = new PeerAddress[peers.size()];
         peers.keySet().toArray(peersList);
@@ -176,7 +503,8 @@ public class Snapshot {
                 if (peerInfo.getSearch().getMaxLuceneIndex() > maxLeaderIndex) {
                     throw new RuntimeException("Node with index higher than leader found!: " + peerInfo);
                 }
-                if (peerInfo.getSearch().getMaxLuceneIndex() == maxLeaderIndex) {
+                // Only a peer holding every entry up to the leader's max has the full index
+                if (peerInfo.getSearch().getContiguousIndex() == maxLeaderIndex) {
                     numWithFullIndex += 1;
                 }
             }
@@ -5,6 +5,7 @@ import search.simulator.snapshot.Snapshot;
 import se.sics.kompics.Port;
 import se.sics.kompics.PortType;
 import se.sics.kompics.Event;
+import common.configuration.SearchConfiguration;
 import common.peer.PeerAddress;
 import cyclon.system.peer.cyclon.CyclonSample;
 import cyclon.system.peer.cyclon.CyclonSamplePort;
@@ -68,14 +69,19 @@ public final class Search extends ComponentDefinition {
      *
      * (Trying to wrap my head around how to encapsulate behaviour and split 1000 lines long files in Kompics)
      */
-    public void setUpServices(PeerAddress self) {
+    public void setUpServices(PeerAddress self, SearchConfiguration configuration) {
         // Indexing: Adding and deleting from the local lucene index
-        indexingService = new IndexingService();
+        indexingService = new IndexingService(configuration, self.getPeerId());
 
         // Index exchange: Exchange index entries between peers
-        indexExchangeService = new IndexExchangeService(new TriggerDependency(), indexingService, self, networkPort);
+        indexExchangeService = new IndexExchangeService(new TriggerDependency(), indexingService, self, configuration, tmanSamplePort, networkPort, timerPort);
         subscribe(indexExchangeService.handleIndexExchangeRequest, networkPort);
         subscribe(indexExchangeService.handleIndexExchangeResponse, networkPort);
+        subscribe(indexExchangeService.handleIndexExchangeUpToDate, networkPort);
+        subscribe(indexExchangeService.handleIndexPushMessage, networkPort);
+        subscribe(indexExchangeService.handleIndexSnapshotRequest, networkPort);
+        subscribe(indexExchangeService.handleIndexSnapshotResponse, networkPort);
+        subscribe(indexExchangeService.handleIndexExchangeProbeTimeout, timerPort);
 
         // Index next id: Keep track of the highest next id in the swarm. Only used by leader
         indexNextIdService = new IndexNextIdService();
@@ -86,10 +92,14 @@ public final class Search extends ComponentDefinition {
         subscribe(leaderElectionService.handleLeaderHeartbeatTimeout, timerPort);
 
         // Index add: Add an index to the swarm, from any client
-        indexAddService = new IndexAddService(new TriggerDependency(), leaderElectionService, indexingService, indexNextIdService, self, networkPort, timerPort);
+        indexAddService = new IndexAddService(new TriggerDependency(), leaderElectionService, indexingService, indexExchangeService, indexNextIdService, self, configuration, networkPort, timerPort);
         subscribe(indexAddService.handleIndexAddRequestMessage, networkPort);
         subscribe(indexAddService.handleLeaderResponseMessage, networkPort);
+        subscribe(indexAddService.handleIndexAddBatchRequestMessage, networkPort);
+        subscribe(indexAddService.handleLeaderBatchResponseMessage, networkPort);
         subscribe(indexAddService.handleIndexAddRequestMessageTimeout, timerPort);
+        subscribe(indexAddService.handleIndexAddBatchTimeout, timerPort);
+        subscribe(indexAddService.handleIndexAddLingerTimeout, timerPort);
 
         // Web: Handle add, search and inspect requests through HTTP
         webService = new WebService(new TriggerDependency(), indexAddService, indexingService, self, webPort, timerPort);
@@ -114,7 +124,7 @@ public final class Search extends ComponentDefinition {
             self = init.getSelf();
 
             // Set upp all application services
-            setUpServices(self);
+            setUpServices(self, init.getConfiguration());
 
             Snapshot.updateNum(self, init.getNum());
         }
@@ -122,7 +132,7 @@ public final class Search extends ComponentDefinition {
 
 
     /**
-     * Receive Cyclon samples and relay them to the IndexAddService
+     * Receive Cyclon samples and relay them to the IndexAddService and IndexExchangeService
      * The Snapshot.report()-heartbeat is triggered from here
      */
     Handler<CyclonSample> handleCyclonSample = new Handler<CyclonSample>() {
@@ -140,6 +150,7 @@ public final class Search extends ComponentDefinition {
 
             if (sampleNodes.size() > 0) {
                 indexAddService.receiveCyclonSample(sampleNodes);
+                indexExchangeService.receiveCyclonSample(sampleNodes);
             }
         }
     };
@@ -156,6 +167,7 @@ public final class Search extends ComponentDefinition {
             }
             leaderElectionService.receiveTManSample(event.getSample());
             indexExchangeService.receiveTManSample(event.getSample());
+            indexAddService.receiveTManSample(event.getSample());
         }
     };
 
@@ -177,6 +189,10 @@ public final class Search extends ComponentDefinition {
         return indexingService.getMaxLuceneIndex();
     }
 
+    public int getContiguousIndex() {
+        return indexingService.getContiguousIndex();
+    }
+
     public boolean isLeader() {
         return leaderElectionService.isLeader();
     }
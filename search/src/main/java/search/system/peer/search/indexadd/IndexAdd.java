@@ -0,0 +1,40 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * One index add carried in a batched request: the entry, and the peer the leader acknowledges it to
+ */
+public class IndexAdd implements Serializable {
+    private static final long serialVersionUID = -2938417461082734110L;
+    private final UUID requestId;
+    private final String key;
+    private final String value;
+    private final PeerAddress requester;
+
+    public IndexAdd(UUID requestId, String key, String value, PeerAddress requester) {
+        this.requestId = requestId;
+        this.key = key;
+        this.value = value;
+        this.requester = requester;
+    }
+
+    public UUID getRequestId() {
+        return requestId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public PeerAddress getRequester() {
+        return requester;
+    }
+}
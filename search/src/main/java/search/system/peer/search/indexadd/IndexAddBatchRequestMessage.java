@@ -0,0 +1,31 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+import common.peer.PeerMessage;
+
+import java.util.List;
+
+/**
+ * Index adds coalesced into one request, routed up the gradient to the leader. Relays forward the batch as is
+ */
+public class IndexAddBatchRequestMessage extends PeerMessage {
+
+    private static final long serialVersionUID = -4715620938716205327L;
+    private final List<IndexAdd> adds;
+
+    //-------------------------------------------------------------------
+    public IndexAddBatchRequestMessage(List<IndexAdd> adds, PeerAddress source, PeerAddress destination) {
+        super(source, destination);
+        this.adds = adds;
+    }
+
+    //-------------------------------------------------------------------
+    public List<IndexAdd> getAdds() {
+        return adds;
+    }
+
+    //-------------------------------------------------------------------
+    public int getSize() {
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+import common.peer.PeerMessage;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The leader's acknowledgement of all adds by one requester that were indexed in the same batch,
+ * with the index id assigned to each add
+ */
+public class IndexAddBatchResponseMessage extends PeerMessage {
+
+    private static final long serialVersionUID = 3301948271650937214L;
+    private final List<UUID> requestIds;
+    private final List<Integer> indexIds;
+
+    //-------------------------------------------------------------------
+    public IndexAddBatchResponseMessage(List<UUID> requestIds, List<Integer> indexIds, PeerAddress source, PeerAddress destination) {
+        super(source, destination);
+        this.requestIds = requestIds;
+        this.indexIds = indexIds;
+    }
+
+    //-------------------------------------------------------------------
+    public List<UUID> getRequestIds() {
+        return requestIds;
+    }
+
+    //-------------------------------------------------------------------
+    public List<Integer> getIndexIds() {
+        return indexIds;
+    }
+
+    //-------------------------------------------------------------------
+    public int getSize() {
+        return 0;
+    }
+}
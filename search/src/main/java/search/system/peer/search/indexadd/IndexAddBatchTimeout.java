@@ -0,0 +1,10 @@
+package search.system.peer.search.indexadd;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class IndexAddBatchTimeout extends Timeout {
+	public IndexAddBatchTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+}
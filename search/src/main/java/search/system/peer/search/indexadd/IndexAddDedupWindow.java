@@ -0,0 +1,85 @@
+package search.system.peer.search.indexadd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The index adds the leader has recently accepted, by request id, with the index id assigned to each
+ * Lets the leader recognize a retried add and answer it with the original index id instead of indexing it again
+ * The window is bounded in size, and adds are forgotten once they are older than the time to live
+ */
+public class IndexAddDedupWindow {
+    // The index id of an add that is accepted, but still waiting in the leader's queue
+    public static final int PENDING = -1;
+
+    private final int maxEntries;
+    private final long timeToLive;
+
+    // In the order the adds were accepted, so the oldest ones are first in line to be evicted or expired
+    private final LinkedHashMap<UUID, AcceptedAdd> accepted = new LinkedHashMap<UUID, AcceptedAdd>();
+
+    public IndexAddDedupWindow(int maxEntries, long timeToLive) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Remember that the add with requestId was accepted. Its index id is PENDING until assigned
+     */
+    public void accept(UUID requestId, long now) {
+        expire(now);
+        accepted.put(requestId, new AcceptedAdd(now));
+        if (accepted.size() > maxEntries) {
+            Iterator<UUID> oldest = accepted.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public void assign(UUID requestId, int indexId) {
+        AcceptedAdd add = accepted.get(requestId);
+        if (add != null) {
+            add.indexId = indexId;
+        }
+    }
+
+    /**
+     * Forget an accepted add that wasn't indexed here after all
+     */
+    public void forget(UUID requestId) {
+        accepted.remove(requestId);
+    }
+
+    /**
+     * Return true if the add with requestId was accepted within the window
+     */
+    public boolean contains(UUID requestId, long now) {
+        expire(now);
+        return accepted.containsKey(requestId);
+    }
+
+    /**
+     * Return the index id assigned to an accepted add, or PENDING if it hasn't been assigned one yet
+     */
+    public int getIndexId(UUID requestId) {
+        return accepted.get(requestId).indexId;
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<UUID, AcceptedAdd>> oldest = accepted.entrySet().iterator();
+        while (oldest.hasNext() && now - oldest.next().getValue().acceptedAt > timeToLive) {
+            oldest.remove();
+        }
+    }
+
+    private static class AcceptedAdd {
+        private final long acceptedAt;
+        private int indexId = PENDING;
+
+        AcceptedAdd(long acceptedAt) {
+            this.acceptedAt = acceptedAt;
+        }
+    }
+}
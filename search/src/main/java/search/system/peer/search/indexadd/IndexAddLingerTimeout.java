@@ -0,0 +1,10 @@
+package search.system.peer.search.indexadd;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class IndexAddLingerTimeout extends Timeout {
+	public IndexAddLingerTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+}
@@ -39,7 +39,7 @@ public class IndexAddRequestMessage extends PeerMessage {
     }
 
     public String getValue() {
-        return key;
+        return value;
     }
 
     //-------------------------------------------------------------------
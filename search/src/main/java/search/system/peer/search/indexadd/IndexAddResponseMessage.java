@@ -10,11 +10,13 @@ public class IndexAddResponseMessage extends PeerMessage {
 
     private static final long serialVersionUID = 8493601671018888143L;
     private final UUID requestId;
+    private final int indexId;
 
     //-------------------------------------------------------------------
-    public IndexAddResponseMessage(UUID requestId, PeerAddress source, PeerAddress destination) {
+    public IndexAddResponseMessage(UUID requestId, int indexId, PeerAddress source, PeerAddress destination) {
         super(source, destination);
         this.requestId = requestId;
+        this.indexId = indexId;
     }
 
     //-------------------------------------------------------------------
@@ -22,6 +24,11 @@ public class IndexAddResponseMessage extends PeerMessage {
         return requestId;
     }
 
+    //-------------------------------------------------------------------
+    public int getIndexId() {
+        return indexId;
+    }
+
     //-------------------------------------------------------------------
     public int getSize() {
         return 0;
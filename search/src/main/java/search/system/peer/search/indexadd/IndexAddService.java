@@ -1,5 +1,6 @@
 package search.system.peer.search.indexadd;
 
+import common.configuration.SearchConfiguration;
 import common.peer.PeerAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,7 +10,9 @@ import se.sics.kompics.network.Network;
 import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timer;
 import search.simulator.snapshot.Snapshot;
+import search.system.peer.search.indexexchange.IndexExchangeService;
 import search.system.peer.search.indexnextid.IndexNextIdService;
+import search.system.peer.search.indexing.IndexEntry;
 import search.system.peer.search.indexing.IndexingService;
 import search.system.peer.search.Search;
 import search.system.peer.search.leaderelection.LeaderElectionService;
@@ -33,50 +36,206 @@ public class IndexAddService {
     Positive<Timer> timerPort;
     Search.TriggerDependency triggerDependency;
     IndexingService indexingService;
+    IndexExchangeService indexExchangeService;
     IndexNextIdService indexNextIdService;
     LeaderElectionService leaderElectionService;
 
-    // The peers closest to the top of the gradient, as discovered by cyclon. Used to route index add requests
-    private ArrayList<PeerAddress> topmostCyclonPartners = new ArrayList<PeerAddress>();
+    // The peers closest to the top of the gradient, as discovered by cyclon and tman. Used to route index add requests
+    private TopmostPartners topmostPartners;
+
+    // The leader, as learned from add responses and leader announcements. Adds are sent straight to it while it's known
+    // A leader that an add to timed out is suspected, and not learned from announcements again until it responds
+    private PeerAddress cachedLeader = null;
+    private PeerAddress suspectedLeader = null;
 
     // The outstanding index add requests. Used for resending if timeout is reached
-    private HashMap<UUID, IndexAddRequestMessage> outstandingLeaderRequests = new HashMap<UUID, IndexAddRequestMessage>();
+    private HashMap<UUID, OutstandingIndexAdd> outstandingLeaderRequests = new HashMap<UUID, OutstandingIndexAdd>();
+
+    // Timeouts of add attempts. The first attempt times out after the estimated rtt to the leader, or after the
+    // configured initial timeout until an rtt has been sampled. Never before the leader's batch window and the
+    // client's linger time have passed, since an add may be held up by both before it is acknowledged
+    private RetryPolicy retryPolicy;
+    private RttEstimator rttEstimator;
+    private long indexAddInitialTimeout;
+
+    // If leader, the adds waiting to be indexed together in the next batch
+    private ArrayList<PendingIndexAdd> leaderAddQueue = new ArrayList<PendingIndexAdd>();
+    private boolean leaderAddFlushScheduled = false;
+
+    // If leader, the adds accepted recently. Retries of an accepted add are answered instead of indexed again
+    private IndexAddDedupWindow addDedupWindow;
+    private int leaderAddBatchSize;
+    private long leaderAddBatchWindow;
+
+    // If batching, the adds waiting to be sent to each next hop in one request, flushed when full or when the linger time has passed
+    private HashMap<PeerAddress, ArrayList<IndexAdd>> clientAddBatches = new HashMap<PeerAddress, ArrayList<IndexAdd>>();
+    private boolean clientAddFlushScheduled = false;
+    private int indexAddBatchSize;
+    private long indexAddBatchLinger;
 
-    public IndexAddService(Search.TriggerDependency triggerDependency, LeaderElectionService leaderElectionService, IndexingService indexingService, IndexNextIdService indexNextIdService, PeerAddress self, Positive<Network> networkPort, Positive<Timer> timerPort) {
+    public IndexAddService(Search.TriggerDependency triggerDependency, LeaderElectionService leaderElectionService, IndexingService indexingService, IndexExchangeService indexExchangeService, IndexNextIdService indexNextIdService, PeerAddress self, SearchConfiguration configuration, Positive<Network> networkPort, Positive<Timer> timerPort) {
         this.timerPort = timerPort;
         this.triggerDependency = triggerDependency;
         this.self = self;
         this.networkPort = networkPort;
         this.indexingService = indexingService;
+        this.indexExchangeService = indexExchangeService;
         this.leaderElectionService = leaderElectionService;
         this.indexNextIdService = indexNextIdService;
+        this.leaderAddBatchSize = configuration.getLeaderAddBatchSize();
+        this.leaderAddBatchWindow = configuration.getLeaderAddBatchWindow();
+        this.indexAddBatchSize = configuration.getIndexAddBatchSize();
+        this.indexAddBatchLinger = configuration.getIndexAddBatchLinger();
+        this.topmostPartners = new TopmostPartners(configuration.getTopmostPartners());
+        this.addDedupWindow = new IndexAddDedupWindow(configuration.getIndexAddDedupSize(), configuration.getIndexAddDedupTtl());
+        this.indexAddInitialTimeout = configuration.getIndexAddRetryInitialTimeout();
+        this.rttEstimator = new RttEstimator(Math.max(RttEstimator.MIN_TIMEOUT, leaderAddBatchWindow + indexAddBatchLinger));
+        this.retryPolicy = new RetryPolicy(configuration.getIndexAddRetryMultiplier(), configuration.getIndexAddRetryMaxTimeout(),
+                configuration.getIndexAddRetryJitter(), configuration.getIndexAddRetryMaxAttempts());
+    }
+
+    /**
+     * True if index adds are routed to the leader in batches, and acknowledged in batches
+     */
+    private boolean isBatching() {
+        return indexAddBatchSize > 1;
+    }
+
+    /**
+     * Queue an entry to be indexed by the leader. The queue is indexed as one batch when it is full,
+     * or when the batch window has passed since the first entry was queued
+     * requester is acknowledged once the entry is indexed, unless it's null
+     * An add already accepted under the same request id isn't queued again. If it has been indexed, the requester
+     * is acknowledged with the index id it was given. If it's still queued, the acknowledgement is sent when it's indexed
+     */
+    private void addEntryAtLeader(UUID requestID, String key, String value, PeerAddress requester) {
+        long now = System.currentTimeMillis();
+        if (addDedupWindow.contains(requestID, now)) {
+            Snapshot.duplicateIndexAddAnswered();
+            int indexId = addDedupWindow.getIndexId(requestID);
+            if (indexId != IndexAddDedupWindow.PENDING && requester != null) {
+                Snapshot.addIndexEntryMessageSent();
+                triggerDependency.trigger(new IndexAddResponseMessage(requestID, indexId, self, requester), networkPort);
+            }
+            return;
+        }
+        addDedupWindow.accept(requestID, now);
+
+        leaderAddQueue.add(new PendingIndexAdd(requestID, key, value, requester, System.currentTimeMillis()));
+        if (leaderAddQueue.size() >= leaderAddBatchSize) {
+            flushLeaderAddQueue();
+        } else if (!leaderAddFlushScheduled) {
+            ScheduleTimeout rst = new ScheduleTimeout(leaderAddBatchWindow);
+            rst.setTimeoutEvent(new IndexAddBatchTimeout(rst));
+            triggerDependency.trigger(rst, timerPort);
+            leaderAddFlushScheduled = true;
+        }
+    }
+
+    /**
+     * Assign consecutive ids to all queued entries, index them in one operation and acknowledge every request in the batch
+     * If leadership was lost while the entries were queued, they are routed on to the new leader instead, so that
+     * ids the new leader assigns aren't assigned here too
+     */
+    private void flushLeaderAddQueue() {
+        if (leaderAddQueue.isEmpty()) {
+            return;
+        }
+        List<PendingIndexAdd> batch = leaderAddQueue;
+        leaderAddQueue = new ArrayList<PendingIndexAdd>();
+
+        if (!leaderElectionService.isLeader()) {
+            for (PendingIndexAdd add : batch) {
+                addDedupWindow.forget(add.getRequestId());
+                addEntryAtClient(add.getKey(), add.getValue(), add.getRequester(), add.getRequestId(), 1);
+            }
+            return;
+        }
+
+        int indexID = indexNextIdService.getIncrementedIds(batch.size());
+        long now = System.currentTimeMillis();
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(batch.size());
+        for (PendingIndexAdd add : batch) {
+            addDedupWindow.assign(add.getRequestId(), indexID);
+            entries.add(new IndexEntry(indexID++, add.getKey(), add.getValue()));
+            Snapshot.leaderAddQueued(now - add.getQueuedAt());
+        }
+
+        try {
+            entries = indexingService.addNewEntries(entries);
+        } catch (IOException ex) {
+            java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(-1);
+        }
+        Snapshot.leaderAddBatchIndexed(batch.size());
+        indexExchangeService.pushNewEntries(entries);
+
+        if (isBatching()) {
+            acknowledgeBatch(batch, entries);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            PendingIndexAdd add = batch.get(i);
+            if (add.getRequester() != null) {
+                Snapshot.addIndexEntryMessageSent();
+                triggerDependency.trigger(new IndexAddResponseMessage(add.getRequestId(), entries.get(i).getIndexId(), self, add.getRequester()), networkPort);
+            }
+        }
     }
 
-    private void addEntryAtLeader(String key, String value) throws IOException {
-        indexingService.addNewEntry(indexNextIdService.getIncrementedId(), key, value);
+    /**
+     * Acknowledge the adds of an indexed batch with one message per requester
+     */
+    private void acknowledgeBatch(List<PendingIndexAdd> batch, List<IndexEntry> entries) {
+        HashMap<PeerAddress, List<UUID>> acknowledgements = new HashMap<PeerAddress, List<UUID>>();
+        HashMap<PeerAddress, List<Integer>> acknowledgedIndexIds = new HashMap<PeerAddress, List<Integer>>();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingIndexAdd add = batch.get(i);
+            if (add.getRequester() == null) {
+                continue;
+            }
+            List<UUID> requestIds = acknowledgements.get(add.getRequester());
+            if (requestIds == null) {
+                requestIds = new ArrayList<UUID>();
+                acknowledgements.put(add.getRequester(), requestIds);
+                acknowledgedIndexIds.put(add.getRequester(), new ArrayList<Integer>());
+            }
+            requestIds.add(add.getRequestId());
+            acknowledgedIndexIds.get(add.getRequester()).add(entries.get(i).getIndexId());
+        }
+
+        for (PeerAddress requester : acknowledgements.keySet()) {
+            Snapshot.addIndexEntryMessageSent();
+            triggerDependency.trigger(new IndexAddBatchResponseMessage(acknowledgements.get(requester), acknowledgedIndexIds.get(requester), self, requester), networkPort);
+        }
     }
 
+    /**
+     * Index the leader's queued entries once the batch window has passed
+     */
+    public Handler<IndexAddBatchTimeout> handleIndexAddBatchTimeout = new Handler<IndexAddBatchTimeout>() {
+        public void handle(IndexAddBatchTimeout timeout) {
+            leaderAddFlushScheduled = false;
+            flushLeaderAddQueue();
+        }
+    };
+
     public void addEntryAtClient(String key, String value) {
         Snapshot.addIndexEntryInitiated();
-        addEntryAtClient(key, value, null, UUID.randomUUID());
+        addEntryAtClient(key, value, null, UUID.randomUUID(), 1);
     }
 
     /**
      * Route an index add entry to the leader, or add it to the local index if we are the leader
      * If not called from the source of the request, relayFor will be used as sender address.
-     * Else a retry will be made on timeout
+     * Else a retry will be made on timeout, with the timeout of the attempt given by the retry policy
      */
-    private void addEntryAtClient(String key, String value, PeerAddress relayFor, UUID requestID) {
+    private void addEntryAtClient(String key, String value, PeerAddress relayFor, UUID requestID, int attempt) {
         if(leaderElectionService.isLeader()) {
-            try {
-                addEntryAtLeader(key, value);
-            } catch (IOException ex) {
-                java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
-                System.exit(-1);
-            }
+            addEntryAtLeader(requestID, key, value, relayFor);
         } else {
             IndexAddRequestMessage message = null;
-            PeerAddress recipient = null;
+            PeerAddress recipient = getCachedLeader();
             if(recipient == null) {
                 recipient = getTopmostPartner();
             }
@@ -88,19 +247,65 @@ public class IndexAddService {
                 message = new IndexAddRequestMessage(requestID, key, value, sender, recipient);
             }
 
-            ScheduleTimeout rst = new ScheduleTimeout(10000);
+            ScheduleTimeout rst = new ScheduleTimeout(retryPolicy.getTimeout(rttEstimator.getTimeout(indexAddInitialTimeout), attempt));
             rst.setTimeoutEvent(new IndexAddRequestMessageTimeout(rst, requestID, relayFor == null));
             triggerDependency.trigger(rst, timerPort);
-            outstandingLeaderRequests.put(requestID, message);
+            outstandingLeaderRequests.put(requestID, new OutstandingIndexAdd(message, attempt, System.currentTimeMillis()));
 
             if (recipient != null) {
-                Snapshot.addIndexEntryMessageSent();
-                triggerDependency.trigger(message, networkPort);
+                if (isBatching()) {
+                    queueClientAdd(recipient, new IndexAdd(requestID, key, value, sender));
+                } else {
+                    Snapshot.addIndexEntryMessageSent();
+                    triggerDependency.trigger(message, networkPort);
+                }
             }
         }
 
     }
 
+    /**
+     * Queue an add to be sent to recipient with the next batch for it. The batch is sent when it is full,
+     * or when the linger time has passed since an add was queued
+     */
+    private void queueClientAdd(PeerAddress recipient, IndexAdd add) {
+        ArrayList<IndexAdd> batch = clientAddBatches.get(recipient);
+        if (batch == null) {
+            batch = new ArrayList<IndexAdd>();
+            clientAddBatches.put(recipient, batch);
+        }
+        batch.add(add);
+
+        if (batch.size() >= indexAddBatchSize) {
+            clientAddBatches.remove(recipient);
+            sendClientAddBatch(recipient, batch);
+        } else if (!clientAddFlushScheduled) {
+            ScheduleTimeout rst = new ScheduleTimeout(indexAddBatchLinger);
+            rst.setTimeoutEvent(new IndexAddLingerTimeout(rst));
+            triggerDependency.trigger(rst, timerPort);
+            clientAddFlushScheduled = true;
+        }
+    }
+
+    private void sendClientAddBatch(PeerAddress recipient, List<IndexAdd> batch) {
+        Snapshot.addIndexEntryMessageSent();
+        triggerDependency.trigger(new IndexAddBatchRequestMessage(batch, self, recipient), networkPort);
+    }
+
+    /**
+     * Send all batches that are waiting, once the linger time has passed
+     */
+    public Handler<IndexAddLingerTimeout> handleIndexAddLingerTimeout = new Handler<IndexAddLingerTimeout>() {
+        public void handle(IndexAddLingerTimeout timeout) {
+            clientAddFlushScheduled = false;
+            HashMap<PeerAddress, ArrayList<IndexAdd>> batches = clientAddBatches;
+            clientAddBatches = new HashMap<PeerAddress, ArrayList<IndexAdd>>();
+            for (PeerAddress recipient : batches.keySet()) {
+                sendClientAddBatch(recipient, batches.get(recipient));
+            }
+        }
+    };
+
     /**
      * Add the index entry to the local index if we are the leader. Else route the message upwards in the gradient
      */
@@ -108,15 +313,38 @@ public class IndexAddService {
         @Override
         public void handle(IndexAddRequestMessage request) {
             if (leaderElectionService.isLeader()) {
-                try {
-                    addEntryAtLeader(request.getKey(), request.getValue());
-                    Snapshot.addIndexEntryMessageSent();
-                    triggerDependency.trigger(new IndexAddResponseMessage(request.getRequestId(), self, request.getPeerSource()), networkPort);
-                } catch (IOException e) {
-                    e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+                addEntryAtLeader(request.getRequestId(), request.getKey(), request.getValue(), request.getPeerSource());
+            } else {
+                addEntryAtClient(request.getKey(), request.getValue(), request.getPeerSource(), request.getRequestId(), 1);
+            }
+        }
+    };
+
+    /**
+     * Queue the adds of a batch at the leader. Else forward the batch intact upwards in the gradient
+     * Timeouts and retries are left to the peers the adds originate from
+     */
+    public Handler<IndexAddBatchRequestMessage> handleIndexAddBatchRequestMessage = new Handler<IndexAddBatchRequestMessage>() {
+        @Override
+        public void handle(IndexAddBatchRequestMessage request) {
+            if (leaderElectionService.isLeader()) {
+                for (IndexAdd add : request.getAdds()) {
+                    addEntryAtLeader(add.getRequestId(), add.getKey(), add.getValue(), add.getRequester());
+                }
+                return;
+            }
+
+            PeerAddress recipient = getCachedLeader();
+            if (recipient == null) {
+                recipient = getTopmostPartner();
+            }
+            if (recipient == null) {
+                for (IndexAdd add : request.getAdds()) {
+                    addEntryAtClient(add.getKey(), add.getValue(), add.getRequester(), add.getRequestId(), 1);
                 }
             } else {
-                addEntryAtClient(request.getKey(), request.getValue(), request.getPeerSource(), request.getRequestId());
+                Snapshot.addIndexEntryMessageSent();
+                triggerDependency.trigger(new IndexAddBatchRequestMessage(request.getAdds(), self, recipient), networkPort);
             }
         }
     };
@@ -127,36 +355,69 @@ public class IndexAddService {
     public Handler<IndexAddResponseMessage> handleLeaderResponseMessage = new Handler<IndexAddResponseMessage>() {
         @Override
         public void handle(IndexAddResponseMessage response) {
-            outstandingLeaderRequests.remove(response.getRequestId());
-            Snapshot.addIndexEntryCompleted();
+            learnLeader(response.getPeerSource());
+            OutstandingIndexAdd outstanding = outstandingLeaderRequests.remove(response.getRequestId());
+            if (outstanding != null) {
+                acknowledged(outstanding);
+                Snapshot.addIndexEntryCompleted();
+            }
         }
     };
 
     /**
-     * Return the tman/cyclon partner that's closest to the top of the gradient
+     * Remove all acknowledged adds of a batch from the "retry-table"
      */
-    private PeerAddress getTopmostPartner() {
-        PeerAddress top = null;
-        for(PeerAddress peer : topmostCyclonPartners) {
-            if(top == null) {
-                top = peer;
-            } else {
-                if (peer.compareTo(top) == -1) {
-                    top = peer;
+    public Handler<IndexAddBatchResponseMessage> handleLeaderBatchResponseMessage = new Handler<IndexAddBatchResponseMessage>() {
+        @Override
+        public void handle(IndexAddBatchResponseMessage response) {
+            learnLeader(response.getPeerSource());
+            for (UUID requestId : response.getRequestIds()) {
+                OutstandingIndexAdd outstanding = outstandingLeaderRequests.remove(requestId);
+                if (outstanding != null) {
+                    acknowledged(outstanding);
+                    Snapshot.addIndexEntryCompleted();
                 }
             }
         }
+    };
 
-        for(PeerAddress peer : leaderElectionService.getTManPartners()) {
-            if(top == null) {
-                top = peer;
-            } else {
-                if (peer.compareTo(top) == -1) {
-                    top = peer;
-                }
-            }
+    /**
+     * Sample the rtt to the leader from an acknowledged add. Only first attempts are sampled, since the
+     * acknowledgement of a retried add may answer any of its attempts
+     */
+    private void acknowledged(OutstandingIndexAdd outstanding) {
+        if (outstanding.getAttempt() == 1) {
+            rttEstimator.sample(System.currentTimeMillis() - outstanding.getSentAt());
         }
+        Snapshot.indexAddAcknowledged(outstanding.getAttempt());
+    }
+
+    /**
+     * Return the leader to send adds straight to, or null if it isn't known and adds have to be routed up the gradient
+     */
+    private PeerAddress getCachedLeader() {
+        PeerAddress announced = leaderElectionService.getLeader();
+        if (announced != null && !announced.equals(suspectedLeader)) {
+            learnLeader(announced);
+        }
+        return cachedLeader;
+    }
+
+    private void learnLeader(PeerAddress leader) {
+        if (leader.equals(self)) {
+            return;
+        }
+        cachedLeader = leader;
+        if (leader.equals(suspectedLeader)) {
+            suspectedLeader = null;
+        }
+    }
 
+    /**
+     * Return the tman/cyclon partner that's closest to the top of the gradient
+     */
+    private PeerAddress getTopmostPartner() {
+        PeerAddress top = topmostPartners.getBest();
         if (top == null || self.compareTo(top) <= 0) {
             return null;
         }
@@ -167,59 +428,45 @@ public class IndexAddService {
      * Collect cyclon samples for more efficient routing to the leader
      */
     public void receiveCyclonSample (List<PeerAddress> sample) {
-        addTopMostCyclonPartners(sample);
-    }
-
-    /**
-     * Collect the best cyclon samples for more efficient routing to the leader
-     */
-    private void addTopMostCyclonPartners(List<PeerAddress> parnters) {
-        for(PeerAddress peer : parnters) {
-            if (topmostCyclonPartners.contains(peer)) {
-                continue;
-            }
-            if (topmostCyclonPartners.size() < 10) {
-                topmostCyclonPartners.add(peer);
-            } else {
-                PeerAddress bottom = getBottomCyclonPartner();
-                if(peer.compareTo(bottom) == -1) {
-                    topmostCyclonPartners.remove(bottom);
-                    topmostCyclonPartners.add(peer);
-                }
-            }
-        }
+        topmostPartners.addAll(sample);
     }
 
     /**
-     * Get the worst ranked top-cyclon partner
+     * Collect tman samples for more efficient routing to the leader
      */
-    private PeerAddress getBottomCyclonPartner() {
-        PeerAddress bottom = null;
-        for(PeerAddress peer : topmostCyclonPartners) {
-            if(bottom == null) {
-                bottom = peer;
-            } else {
-                if (peer.compareTo(bottom) == 1) {
-                    bottom = peer;
-                }
-            }
-        }
-        return bottom;
+    public void receiveTManSample(List<PeerAddress> sample) {
+        topmostPartners.addAll(sample);
     }
 
     /**
-     * Retry a IndexAddRequestMessage if it reached timeout and we are the original source of the request
-     * If not, just drop it
-     * In both cases, remove the failed peer from the topmost cyclon parnters and from the tman view
+     * Retry a IndexAddRequestMessage if it reached timeout, we are the original source of the request,
+     * and the retry policy allows another attempt. If not, just drop it
+     * A retry keeps the request id, so the leader can tell it from a new add if an earlier attempt got through
+     * A timeout that is retried may just be a slow reply, so the peer it was sent to is kept. Only when an add is
+     * given up, or a relayed request times out, is the failed peer removed from the topmost partners and the tman view
+     * If the failed peer is the cached leader, it is suspected, and adds fall back to routing up the gradient until a
+     * leader is learned again. Only the source hears back from the leader, so only its timeouts tell that the leader failed
      */
     public Handler<IndexAddRequestMessageTimeout> handleIndexAddRequestMessageTimeout = new Handler<IndexAddRequestMessageTimeout>() {
         public void handle(IndexAddRequestMessageTimeout message) {
-            IndexAddRequestMessage outstanding = outstandingLeaderRequests.get(message.getRequestID());
-            if (outstanding != null) {
-                topmostCyclonPartners.remove(outstanding.getPeerDestination());
+            OutstandingIndexAdd outstandingAdd = outstandingLeaderRequests.remove(message.getRequestID());
+            if (outstandingAdd != null) {
+                IndexAddRequestMessage outstanding = outstandingAdd.getMessage();
+                if (message.getRetry() && retryPolicy.canRetry(outstandingAdd.getAttempt())) {
+                    Snapshot.indexAddRetried();
+                    addEntryAtClient(outstanding.getKey(), outstanding.getValue(), null, outstanding.getRequestId(), outstandingAdd.getAttempt() + 1);
+                    return;
+                }
+
+                if (message.getRetry() && outstanding.getPeerDestination().equals(cachedLeader)) {
+                    suspectedLeader = cachedLeader;
+                    cachedLeader = null;
+                    Snapshot.cachedLeaderTimedOut();
+                }
+                topmostPartners.remove(outstanding.getPeerDestination());
                 leaderElectionService.getTManPartners().remove(outstanding.getPeerDestination());
                 if (message.getRetry()) {
-                    addEntryAtClient(outstanding.getKey(), outstanding.getValue());
+                    Snapshot.indexAddGivenUp();
                 }
             }
         }
@@ -0,0 +1,28 @@
+package search.system.peer.search.indexadd;
+
+/**
+ * An index add request waiting for the leader's acknowledgement, with the attempt it is and when it was sent
+ */
+public class OutstandingIndexAdd {
+    private final IndexAddRequestMessage message;
+    private final int attempt;
+    private final long sentAt;
+
+    public OutstandingIndexAdd(IndexAddRequestMessage message, int attempt, long sentAt) {
+        this.message = message;
+        this.attempt = attempt;
+        this.sentAt = sentAt;
+    }
+
+    public IndexAddRequestMessage getMessage() {
+        return message;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+}
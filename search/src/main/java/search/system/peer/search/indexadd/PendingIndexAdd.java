@@ -0,0 +1,45 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+
+import java.util.UUID;
+
+/**
+ * An index add waiting in the leader's queue to be indexed with the next batch
+ */
+public class PendingIndexAdd {
+    private final UUID requestId;
+    private final String key;
+    private final String value;
+    // The peer to acknowledge once indexed, or null if the add was made at the leader itself
+    private final PeerAddress requester;
+    private final long queuedAt;
+
+    public PendingIndexAdd(UUID requestId, String key, String value, PeerAddress requester, long queuedAt) {
+        this.requestId = requestId;
+        this.key = key;
+        this.value = value;
+        this.requester = requester;
+        this.queuedAt = queuedAt;
+    }
+
+    public UUID getRequestId() {
+        return requestId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public PeerAddress getRequester() {
+        return requester;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+}
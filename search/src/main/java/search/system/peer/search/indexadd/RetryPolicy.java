@@ -0,0 +1,41 @@
+package search.system.peer.search.indexadd;
+
+import java.util.Random;
+
+/**
+ * Timeouts of successive attempts of a request: grown by a multiplier per attempt up to a cap, and spread by a random
+ * jitter so that peers whose requests failed together don't retry together
+ */
+public class RetryPolicy {
+    private final double multiplier;
+    private final long maxTimeout;
+    // The fraction the timeout is randomly moved by, up or down
+    private final double jitter;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    public RetryPolicy(double multiplier, long maxTimeout, double jitter, int maxAttempts) {
+        this.multiplier = multiplier;
+        this.maxTimeout = maxTimeout;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Return the timeout of an attempt, counting from 1, given the timeout of the first attempt
+     * The jitter is applied after the cap, so that capped attempts are spread too. No attempt times out sooner than
+     * the first attempt's timeout, which callers derive from the rtt with a floor, even if jitter or the cap would have it
+     */
+    public long getTimeout(long initialTimeout, int attempt) {
+        double timeout = Math.min(initialTimeout * Math.pow(multiplier, attempt - 1), maxTimeout);
+        timeout *= 1 + jitter * (2 * random.nextDouble() - 1);
+        return Math.max(Math.max(1, initialTimeout), (long) timeout);
+    }
+
+    /**
+     * Return true if a request whose attempt timed out may be tried again
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+}
@@ -0,0 +1,47 @@
+package search.system.peer.search.indexadd;
+
+/**
+ * Smoothed round trip time of requests to other peers, such as index adds to the leader, and the timeout derived
+ * from it, estimated the way TCP estimates its retransmission timeout
+ */
+public class RttEstimator {
+    // The least margin over the smoothed rtt, so that a steady rtt doesn't give a timeout right at the rtt
+    private static final long MIN_MARGIN = 50;
+
+    // The least timeout in ms, like TCP's 1 second floor. A few quick replies mustn't make a reply that is
+    // held up for a moment, by a batch window for example, look like a failure
+    public static final long MIN_TIMEOUT = 1000;
+
+    private final long minTimeout;
+    private double smoothedRtt = -1;
+    private double rttVariation = 0;
+
+    public RttEstimator() {
+        this(MIN_TIMEOUT);
+    }
+
+    public RttEstimator(long minTimeout) {
+        this.minTimeout = minTimeout;
+    }
+
+    public void sample(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2.0;
+        } else {
+            rttVariation = 0.75 * rttVariation + 0.25 * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+        }
+    }
+
+    /**
+     * Return the timeout for a first attempt: the smoothed rtt plus a margin of its variation, or defaultTimeout
+     * if no rtt has been sampled yet. Never less than the minimum timeout
+     */
+    public long getTimeout(long defaultTimeout) {
+        if (smoothedRtt < 0) {
+            return Math.max(minTimeout, defaultTimeout);
+        }
+        return Math.max(minTimeout, (long) (smoothedRtt + Math.max(MIN_MARGIN, 4 * rttVariation)));
+    }
+}
@@ -0,0 +1,61 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * The peers closest to the top of the gradient seen so far, bounded in number and kept in id order
+ * Adding or evicting a peer is O(log k) in the bound k, and the best peer is kept at hand so looking it up is O(1)
+ */
+public class TopmostPartners {
+    private final int maxSize;
+    private final TreeSet<PeerAddress> partners = new TreeSet<PeerAddress>();
+    private PeerAddress best = null;
+
+    public TopmostPartners(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Add a peer if there is room, or if it's closer to the top than the worst peer held, which is then evicted
+     */
+    public void add(PeerAddress peer) {
+        if (partners.size() >= maxSize) {
+            if (peer.compareTo(partners.last()) >= 0 || !partners.add(peer)) {
+                return;
+            }
+            partners.pollLast();
+        } else if (!partners.add(peer)) {
+            return;
+        }
+
+        if (best == null || peer.compareTo(best) < 0) {
+            best = peer;
+        }
+    }
+
+    public void addAll(Collection<PeerAddress> peers) {
+        for (PeerAddress peer : peers) {
+            add(peer);
+        }
+    }
+
+    public void remove(PeerAddress peer) {
+        if (partners.remove(peer) && peer.equals(best)) {
+            best = partners.isEmpty() ? null : partners.first();
+        }
+    }
+
+    /**
+     * Return the peer closest to the top of the gradient, or null if no peer is held
+     */
+    public PeerAddress getBest() {
+        return best;
+    }
+
+    public int size() {
+        return partners.size();
+    }
+}
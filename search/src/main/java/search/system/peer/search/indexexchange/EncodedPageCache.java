@@ -0,0 +1,90 @@
+package search.system.peer.search.indexexchange;
+
+import search.simulator.snapshot.Snapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of encoded chunks of index entries, by the id range they cover
+ * Chunks are aligned to the chunk size, so requests starting at different ids share all but their first chunk
+ * All cached chunks belong to one index generation. They are dropped as soon as a lookup is made for a newer one
+ */
+public class EncodedPageCache {
+    private final int maxEntries;
+
+    // Access ordered, so the least recently used chunk is evicted first
+    private final LinkedHashMap<Long, byte[]> pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            if (size() > maxEntries) {
+                bytes -= eldest.getValue().length;
+                return true;
+            }
+            return false;
+        }
+    };
+    // The total size of the cached chunks
+    private long bytes = 0;
+    private long generation = 0;
+
+    private int hits = 0;
+    private int misses = 0;
+
+    public EncodedPageCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return the encoded entries in (afterIndex, lastIndex] as of the given index generation, or null if not cached
+     */
+    public byte[] get(long indexGeneration, int afterIndex, int lastIndex) {
+        if (indexGeneration != generation) {
+            pages.clear();
+            bytes = 0;
+            generation = indexGeneration;
+        }
+
+        byte[] page = pages.get(createKey(afterIndex, lastIndex));
+        if (page == null) {
+            misses++;
+            Snapshot.encodedPageCacheMiss();
+            return null;
+        }
+        hits++;
+        Snapshot.encodedPageCacheHit();
+        return page;
+    }
+
+    /**
+     * Cache the encoded entries in (afterIndex, lastIndex] for the current index generation
+     */
+    public void put(int afterIndex, int lastIndex, byte[] encodedEntries) {
+        bytes += encodedEntries.length;
+        byte[] replaced = pages.put(createKey(afterIndex, lastIndex), encodedEntries);
+        if (replaced != null) {
+            bytes -= replaced.length;
+        }
+        Snapshot.encodedPageCacheFilled(bytes);
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static Long createKey(int afterIndex, int lastIndex) {
+        return ((long)afterIndex << 32) | (lastIndex & 0xffffffffL);
+    }
+}
@@ -0,0 +1,118 @@
+package search.system.peer.search.indexexchange;
+
+import search.simulator.snapshot.Snapshot;
+import search.system.peer.search.indexing.IndexEntry;
+import search.system.peer.search.indexing.IndexTokens;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact wire format for index entries sent between peers
+ * The entry count is followed by one record per entry: the index id as a varint of the difference to the previous id,
+ * then the key and value as varint length-prefixed UTF-8, then the analyzed key: the token count plus one, 0 if the entry
+ * wasn't pre-analyzed, followed by each term as a varint position increment and a length-prefixed term
+ * Entries must be encoded in ascending index id order
+ */
+public class IndexEntryCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static byte[] encode(List<IndexEntry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + entries.size() * 24);
+        writeVarInt(out, entries.size());
+        int previousId = 0;
+        int tokenBytes = 0;
+        for (IndexEntry entry : entries) {
+            if (entry.getIndexId() < previousId) {
+                throw new IllegalArgumentException("Entries must be in ascending index id order");
+            }
+            writeVarInt(out, entry.getIndexId() - previousId);
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+            int tokensStart = out.size();
+            writeTokens(out, entry.getTokens());
+            tokenBytes += out.size() - tokensStart;
+            previousId = entry.getIndexId();
+        }
+        Snapshot.indexEntriesEncoded(entries.size(), out.size(), tokenBytes);
+        return out.toByteArray();
+    }
+
+    public static List<IndexEntry> decode(byte[] data) {
+        int[] position = new int[1];
+        int count = readVarInt(data, position);
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(count);
+        int indexId = 0;
+        for (int i = 0; i < count; i++) {
+            indexId += readVarInt(data, position);
+            String key = readString(data, position);
+            String value = readString(data, position);
+            entries.add(new IndexEntry(indexId, key, value, readTokens(data, position)));
+        }
+        return entries;
+    }
+
+    private static void writeTokens(ByteArrayOutputStream out, IndexTokens tokens) {
+        if (tokens == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, tokens.size() + 1);
+        for (int i = 0; i < tokens.size(); i++) {
+            writeVarInt(out, tokens.getPositionIncrement(i));
+            writeString(out, tokens.getTerm(i));
+        }
+    }
+
+    private static IndexTokens readTokens(byte[] data, int[] position) {
+        int count = readVarInt(data, position) - 1;
+        if (count < 0) {
+            return null;
+        }
+        String[] terms = new String[count];
+        int[] positionIncrements = new int[count];
+        for (int i = 0; i < count; i++) {
+            positionIncrements[i] = readVarInt(data, position);
+            terms[i] = readString(data, position);
+        }
+        return new IndexTokens(terms, positionIncrements);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(byte[] data, int[] position) {
+        int length = readVarInt(data, position);
+        String s = new String(data, position[0], length, UTF8);
+        position[0] += length;
+        return s;
+    }
+
+    /**
+     * Write an unsigned int seven bits at a time, low bits first. The high bit of each byte marks that more follow
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarInt(byte[] data, int[] position) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+}
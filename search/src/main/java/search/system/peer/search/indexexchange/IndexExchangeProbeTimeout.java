@@ -0,0 +1,25 @@
+package search.system.peer.search.indexexchange;
+
+import common.peer.PeerAddress;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+import java.util.UUID;
+
+public class IndexExchangeProbeTimeout extends Timeout {
+    private final UUID requestID;
+    private final PeerAddress partner;
+	public IndexExchangeProbeTimeout(ScheduleTimeout request, PeerAddress partner) {
+		super(request);
+        requestID = UUID.randomUUID();
+        this.partner = partner;
+	}
+
+    public UUID getRequestID() {
+        return requestID;
+    }
+
+    public PeerAddress getPartner() {
+        return partner;
+    }
+}
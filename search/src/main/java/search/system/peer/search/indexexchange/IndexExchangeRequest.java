@@ -4,16 +4,30 @@ import se.sics.kompics.address.Address;
 import se.sics.kompics.network.Message;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.UUID;
 
 
 public class IndexExchangeRequest extends Message {
     int maxIndexID;
     BigInteger sourcePeerID;
+    // Digests of id ranges below maxIndexID, for the responder to compare with its own. Empty without anti-entropy
+    List<IndexRangeDigest> digests;
+    // The number of chunks of entries above maxIndexID the requester is ready to receive
+    int credits;
+    // The highest index id the requester wants chunks for, or Integer.MAX_VALUE for no bound
+    int lastIndexID;
+    // The transfer the requested chunks belong to, echoed in the replies. Null for requests that only carry digests
+    UUID transferID;
 
-    public IndexExchangeRequest(Address source, BigInteger sourcePeerID, Address destination, int maxIndexID) {
+    public IndexExchangeRequest(Address source, BigInteger sourcePeerID, Address destination, int maxIndexID, int lastIndexID, int credits, UUID transferID, List<IndexRangeDigest> digests) {
         super(source, destination);
         this.maxIndexID = maxIndexID;
         this.sourcePeerID = sourcePeerID;
+        this.lastIndexID = lastIndexID;
+        this.credits = credits;
+        this.transferID = transferID;
+        this.digests = digests;
     }
 
     public int getMaxIndexID() {
@@ -23,4 +37,20 @@ public class IndexExchangeRequest extends Message {
     public BigInteger getSourcePeerID(){
         return sourcePeerID;
     }
+
+    public int getLastIndexID() {
+        return lastIndexID;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+
+    public UUID getTransferID() {
+        return transferID;
+    }
+
+    public List<IndexRangeDigest> getDigests() {
+        return digests;
+    }
 }
@@ -1,28 +1,71 @@
 package search.system.peer.search.indexexchange;
 
-import org.apache.lucene.document.Document;
 import se.sics.kompics.address.Address;
 import se.sics.kompics.network.Message;
 
 import java.math.BigInteger;
 import java.util.List;
+import java.util.UUID;
 
 
 public class IndexExchangeResponse extends Message {
-    List<Document> documents;
+    // The entries of the page, encoded with IndexEntryCodec
+    byte[] encodedEntries;
     BigInteger sourcePeerID;
+    // The last index id covered by this page, and whether the source has entries beyond it
+    int resumeIndexID;
+    boolean hasMore;
+    // The highest index id of the source when the response was sent
+    int sourceMaxIndexID;
+    // Entries in the requested ranges that were too small to split further, encoded with IndexEntryCodec
+    byte[] encodedRepairEntries;
+    // The requested ranges whose digests differ from the source's, and that the requester should split and resend
+    List<IndexRangeDigest> mismatchedRanges;
+    // The transfer of the request this responds to, or null if the request only carried digests
+    UUID transferID;
 
-    public IndexExchangeResponse(Address source, BigInteger sourcePeerID, Address destination, List<Document> documents) {
+    public IndexExchangeResponse(Address source, BigInteger sourcePeerID, Address destination, byte[] encodedEntries, int resumeIndexID, boolean hasMore,
+                                 int sourceMaxIndexID, byte[] encodedRepairEntries, List<IndexRangeDigest> mismatchedRanges, UUID transferID) {
         super(source, destination);
-        this.documents = documents;
+        this.encodedEntries = encodedEntries;
         this.sourcePeerID = sourcePeerID;
+        this.resumeIndexID = resumeIndexID;
+        this.hasMore = hasMore;
+        this.sourceMaxIndexID = sourceMaxIndexID;
+        this.encodedRepairEntries = encodedRepairEntries;
+        this.mismatchedRanges = mismatchedRanges;
+        this.transferID = transferID;
     }
 
-    public List<Document> getDocuments() {
-        return documents;
+    public byte[] getEncodedEntries() {
+        return encodedEntries;
     }
 
     public BigInteger getSourcePeerID(){
         return sourcePeerID;
     }
-}
\ No newline at end of file
+
+    public int getResumeIndexID() {
+        return resumeIndexID;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public int getSourceMaxIndexID() {
+        return sourceMaxIndexID;
+    }
+
+    public byte[] getEncodedRepairEntries() {
+        return encodedRepairEntries;
+    }
+
+    public List<IndexRangeDigest> getMismatchedRanges() {
+        return mismatchedRanges;
+    }
+
+    public UUID getTransferID() {
+        return transferID;
+    }
+}
@@ -1,18 +1,35 @@
 package search.system.peer.search.indexexchange;
 
+import common.configuration.SearchConfiguration;
 import common.peer.PeerAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Positive;
+import se.sics.kompics.address.Address;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timer;
 import search.simulator.snapshot.Snapshot;
+import search.system.peer.search.indexadd.RttEstimator;
+import search.system.peer.search.indexing.IndexEntry;
+import search.system.peer.search.indexing.IndexSnapshot;
+import search.system.peer.search.indexing.IndexSnapshotFile;
 import search.system.peer.search.indexing.IndexingService;
+import search.system.peer.search.indexing.StagedIndexSnapshot;
 import search.system.peer.search.Search;
+import tman.system.peer.tman.TManKillNode;
+import tman.system.peer.tman.TManSamplePort;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.UUID;
 
 /**
  * Exchange index entries with gradient neighbors
@@ -23,54 +40,667 @@ public class IndexExchangeService {
     // Dependencies
     private PeerAddress self;
     private Positive<Network> networkPort;
+    Positive<TManSamplePort> tmanSamplePort;
+    Positive<Timer> timerPort;
     Search.TriggerDependency triggerDependency;
     IndexingService indexingService;
 
+
+    // The number of sub-ranges a mismatching id range is split into before the digests are compared again
+    private static final int DIGEST_FANOUT = 16;
+
+    // Id ranges no larger than this are repaired by sending all their entries, instead of being split further
+    private static final int DIGEST_LEAF_SIZE = 64;
+
+    // True if range digests are exchanged to find and repair missing entries below the max index id
+    private boolean antiEntropy;
+
+    // The maximum number of index ids covered by a single chunk, and the number of chunks that may be in flight per transfer
+    private int chunkSize;
+    private int transferWindow;
+
+    // The ongoing chunked transfers to us, by the partner sending them
+    private HashMap<Address, IndexTransfer> transfers = new HashMap<Address, IndexTransfer>();
+
+    // The time in ms a transfer may go without receiving a chunk before it is given up, and new pulls may start
+    private static final int TRANSFER_IDLE_TIMEOUT = 10000;
+
+    // Encoded chunks recently sent. Neighbors asking for entries from about the same id are served the same chunks
+    private EncodedPageCache pageCache = new EncodedPageCache(64);
+
+    // The most partners a peer that is far behind pulls disjoint id ranges from at the same time
+    private static final int MAX_PARALLEL_PULLS = 4;
+
+    // The most TMan rounds between probes of a peer that is caught up and isn't receiving new entries
+    private static final int MAX_PROBE_INTERVAL = 4;
+
+    // The highest index id seen at any partner. We are behind by the difference to the highest id we hold all entries up to
+    private int knownMaxIndex = 0;
+
+    // The time in ms a partner has to reply to a probe until replies have been timed
+    private static final int PROBE_TIMEOUT = 3000;
+
+    // The number of probes in a row a partner must leave unanswered before it is considered dead
+    private static final int MAX_MISSED_PROBES = 3;
+
+    // The probes partners haven't replied to yet and when they were sent, by the partner's address
+    private HashMap<Address, UUID> outstandingProbes = new HashMap<Address, UUID>();
+    private HashMap<Address, Long> probeSentAt = new HashMap<Address, Long>();
+
+    // The probes each partner has left unanswered in a row. Used to detect dead partners
+    private HashMap<Address, Integer> missedProbes = new HashMap<Address, Integer>();
+
+    // Smoothed time partners take to reply to a probe, which the probe timeout is derived from
+    private RttEstimator probeRtt = new RttEstimator();
+
+    // The number of entries a peer with an empty index must be behind by to copy a partner's index instead. 0 if disabled
+    private int snapshotThreshold;
+
+    // The time in ms a snapshot transfer may go without a chunk, on either side, before it is given up
+    private static final int SNAPSHOT_TIMEOUT = 10000;
+
+    // The most bytes of index files per snapshot chunk. Snapshot chunks are granted credits with the same window as entry chunks
+    private static final int SNAPSHOT_CHUNK_BYTES = 64 * 1024;
+
+    // The snapshot being copied to us, if any, and whether copying snapshots has been given up on
+    private IndexSnapshotTransfer snapshotTransfer = null;
+    private boolean snapshotFailed = false;
+
+    // The snapshots being copied from us and when a chunk of each was last requested, by transfer id
+    private HashMap<UUID, IndexSnapshot> servedSnapshots = new HashMap<UUID, IndexSnapshot>();
+    private HashMap<UUID, Long> servedSnapshotAt = new HashMap<UUID, Long>();
+
+    // When a peer with an empty index first found out it was behind, and the max index id it had to catch up to
+    private long catchUpStartedAt = 0;
+    private int catchUpTarget = 0;
+    private boolean catchUpReported = false;
+
+    // The current number of rounds between probes while caught up, and the rounds left until the next probe
+    private int probeInterval = 1;
+    private int roundsUntilProbe = 0;
+
+    // The number of partners new entries are pushed to, and the number of hops they are pushed. No pushing if fanout is 0
+    private int pushFanout;
+    private int pushTtl;
+
+    // The latest TMan and Cyclon samples. New entries are pushed to partners picked from both
+    private List<PeerAddress> tmanPartners = new ArrayList<PeerAddress>();
+    private List<PeerAddress> cyclonPartners = new ArrayList<PeerAddress>();
+
     Random randomGenerator = new Random();
 
-    public IndexExchangeService(Search.TriggerDependency triggerDependency, IndexingService indexingService, PeerAddress self, Positive<Network> networkPort) {
+    public IndexExchangeService(Search.TriggerDependency triggerDependency, IndexingService indexingService, PeerAddress self, SearchConfiguration configuration,
+                                Positive<TManSamplePort> tmanSamplePort, Positive<Network> networkPort, Positive<Timer> timerPort) {
         this.triggerDependency = triggerDependency;
         this.self = self;
         this.networkPort = networkPort;
+        this.tmanSamplePort = tmanSamplePort;
+        this.timerPort = timerPort;
         this.indexingService = indexingService;
+        this.antiEntropy = configuration.isAntiEntropy();
+        this.chunkSize = configuration.getIndexTransferChunkSize();
+        this.transferWindow = configuration.getIndexTransferWindow();
+        this.snapshotThreshold = configuration.getIndexSnapshotThreshold();
+        this.pushFanout = configuration.getIndexPushFanout();
+        this.pushTtl = configuration.getIndexPushTtl();
     }
 
     /**
      * Receive a TMan sample from the Search-layer
      * Request to exchange index entries with someone higher than us in the gradient (random peer among TMan partners)
+     * How much is pulled depends on how far behind we are. When far behind, disjoint id ranges are pulled from several
+     * partners at once. When caught up, partners are probed less and less often, as long as they confirm that
+     * we are up to date, until new entries show up
+     * Pulls start above the highest id we hold all entries up to, so ranges still missing below entries that arrived
+     * out of order are pulled again
+     * No new pulls start while a transfer is ongoing. Its partner is only granted credits as chunks arrive, so the
+     * chunks in flight stay bounded by the window however slow the partner is
      */
     public void receiveTManSample(List<PeerAddress> tmanSample) {
-        if (tmanSample.size() > 1) {
+        tmanPartners = tmanSample;
+        if (tmanSample.size() <= 1) {
+            return;
+        }
+
+        expireIdleTransfers();
+        expireIdleSnapshots();
+        if (!transfers.isEmpty()) {
+            return;
+        }
+
+        int maxIndex = indexingService.getMaxLuceneIndex();
+        int heldIndex = indexingService.getContiguousIndex();
+        int lag = knownMaxIndex - heldIndex;
+        if (lag <= 0 && roundsUntilProbe > 0) {
+            roundsUntilProbe--;
+            Snapshot.indexExchangeProbeSkipped();
+            return;
+        }
+
+        List<IndexRangeDigest> digests = antiEntropy ? createDigests(0, maxIndex) : new ArrayList<IndexRangeDigest>();
+        if (lag <= 0) {
+            probe(tmanSample.get(randomGenerator.nextInt(tmanSample.size())), heldIndex, Integer.MAX_VALUE, digests);
+            return;
+        }
+
+        // One pull per full window of missing ids, each from its own partner. The last range is unbounded to pick up newer entries
+        int windowIds = chunkSize * transferWindow;
+        int pulls = Math.min(Math.min(MAX_PARALLEL_PULLS, tmanSample.size()), (lag + windowIds - 1) / windowIds);
+        int rangeSize = ((lag + pulls - 1) / pulls + chunkSize - 1) / chunkSize * chunkSize;
+        List<PeerAddress> partners = new ArrayList<PeerAddress>(tmanSample);
+        Collections.shuffle(partners, randomGenerator);
+        for (int i = 0; i < pulls; i++) {
+            int afterIndex = heldIndex + i * rangeSize;
+            int lastIndex = i == pulls - 1 ? Integer.MAX_VALUE : afterIndex + rangeSize;
+            probe(partners.get(i), afterIndex, lastIndex, i == 0 ? digests : new ArrayList<IndexRangeDigest>());
+        }
+        if (pulls > 1) {
+            Snapshot.indexExchangeParallelPulls(pulls);
+        }
+    }
+
+    /**
+     * Start a transfer from a partner, and expect it to reply within the probe timeout derived from earlier replies
+     * Every request is replied to, with entries or with an up-to-date message, so a partner that doesn't is slow or dead
+     */
+    private void probe(PeerAddress partner, int afterIndex, int lastIndex, List<IndexRangeDigest> digests) {
+        if (!outstandingProbes.containsKey(partner.getPeerAddress())) {
+            ScheduleTimeout rst = new ScheduleTimeout(probeRtt.getTimeout(PROBE_TIMEOUT));
+            IndexExchangeProbeTimeout timeoutMessage = new IndexExchangeProbeTimeout(rst, partner);
+            rst.setTimeoutEvent(timeoutMessage);
+            outstandingProbes.put(partner.getPeerAddress(), timeoutMessage.getRequestID());
+            probeSentAt.put(partner.getPeerAddress(), System.currentTimeMillis());
+            triggerDependency.trigger(rst, timerPort);
+        }
+        startTransfer(partner.getPeerAddress(), afterIndex, lastIndex, digests);
+    }
+
+    /**
+     * A partner replied. Time the reply if it answers a probe, and forget the probes it missed before
+     */
+    private void probeReplied(Address partner) {
+        if (outstandingProbes.remove(partner) != null) {
+            probeRtt.sample(System.currentTimeMillis() - probeSentAt.remove(partner));
+        }
+        missedProbes.remove(partner);
+    }
+
+    /**
+     * The partner hasn't replied to a probe in time. Stop transferring from it, so that the next round probes again,
+     * and tell the TMan layer it has failed once it has missed MAX_MISSED_PROBES probes in a row
+     */
+    public Handler<IndexExchangeProbeTimeout> handleIndexExchangeProbeTimeout = new Handler<IndexExchangeProbeTimeout>() {
+        public void handle(IndexExchangeProbeTimeout message) {
+            Address partner = message.getPartner().getPeerAddress();
+            if (message.getRequestID().equals(outstandingProbes.get(partner))) {
+                outstandingProbes.remove(partner);
+                probeSentAt.remove(partner);
+                transfers.remove(partner);
+                Snapshot.indexExchangeProbeMissed();
+
+                Integer missed = missedProbes.get(partner);
+                missed = missed == null ? 1 : missed + 1;
+                if (missed < MAX_MISSED_PROBES) {
+                    missedProbes.put(partner, missed);
+                    return;
+                }
+                missedProbes.remove(partner);
+                Snapshot.indexExchangePartnerDead();
+                triggerDependency.trigger(new TManKillNode(message.getPartner()), tmanSamplePort);
+            }
+        }
+    };
+
+    /**
+     * The partner has nothing newer than what we have. Probe less often while this keeps being the case
+     * Only a reply to the active transfer's own request ends it. Replies to requests that only carried digests don't
+     */
+    public Handler<IndexExchangeUpToDate> handleIndexExchangeUpToDate = new Handler<IndexExchangeUpToDate>() {
+        @Override
+        public void handle(IndexExchangeUpToDate event) {
+            probeReplied(event.getSource());
+            IndexTransfer transfer = transfers.get(event.getSource());
+            if (transfer != null && transfer.getId().equals(event.getTransferID())) {
+                transfers.remove(event.getSource());
+            }
+            knownMaxIndex = Math.max(knownMaxIndex, event.getMaxIndexID());
+            if (event.getMaxIndexID() <= indexingService.getContiguousIndex()) {
+                probeInterval = Math.min(probeInterval * 2, MAX_PROBE_INTERVAL);
+                roundsUntilProbe = probeInterval - 1;
+            }
+        }
+    };
+
+    /**
+     * Give up transfers that haven't received a chunk in TRANSFER_IDLE_TIMEOUT, such as ones whose last chunk was lost
+     */
+    private void expireIdleTransfers() {
+        long now = System.currentTimeMillis();
+        Iterator<IndexTransfer> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getLastChunkAt() > TRANSFER_IDLE_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Request the entries in (afterIndex, lastIndex] from a partner, granting it a full window of credits
+     */
+    private void startTransfer(Address partner, int afterIndex, int lastIndex, List<IndexRangeDigest> digests) {
+        int grantedUpTo = afterIndex - afterIndex % chunkSize + transferWindow * chunkSize;
+        IndexTransfer transfer = new IndexTransfer(grantedUpTo, lastIndex, transferWindow, System.currentTimeMillis());
+        transfers.put(partner, transfer);
+        sendRequest(partner, afterIndex, lastIndex, transferWindow, transfer.getId(), digests);
+    }
+
+    /**
+     * Note that new entries were added to our index. Probing goes back to every round
+     */
+    private void entriesReceived(List<IndexEntry> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        knownMaxIndex = Math.max(knownMaxIndex, added.get(added.size() - 1).getIndexId());
+        probeInterval = 1;
+        roundsUntilProbe = 0;
+        checkCaughtUp(false);
+    }
+
+    /**
+     * Report how long a peer that started out with an empty index took to hold everything that existed when it started
+     * Only backlogs of more than one transfer window are reported
+     */
+    private void checkCaughtUp(boolean viaSnapshot) {
+        if (catchUpStartedAt != 0 && !catchUpReported && indexingService.getContiguousIndex() >= catchUpTarget) {
+            catchUpReported = true;
+            if (catchUpTarget > chunkSize * transferWindow) {
+                Snapshot.emptyPeerCaughtUp(catchUpTarget, System.currentTimeMillis() - catchUpStartedAt, viaSnapshot);
+            }
+        }
+    }
+
+    /**
+     * Return true if the partner is so far ahead of our empty index that its index files should be copied instead
+     * Entries pushed to us don't count: until the first entry is held, the index is considered empty
+     */
+    private boolean shouldCopySnapshot(int sourceMaxIndexID) {
+        return snapshotThreshold > 0 && !snapshotFailed && indexingService.getContiguousIndex() == 0 && sourceMaxIndexID >= snapshotThreshold;
+    }
+
+    /**
+     * Give up snapshots no chunk has been requested of in SNAPSHOT_TIMEOUT, so that their files can be deleted
+     */
+    private void expireIdleSnapshots() {
+        long now = System.currentTimeMillis();
+        Iterator<UUID> iterator = servedSnapshots.keySet().iterator();
+        while (iterator.hasNext()) {
+            UUID transferID = iterator.next();
+            if (now - servedSnapshotAt.get(transferID) > SNAPSHOT_TIMEOUT) {
+                releaseSnapshot(servedSnapshots.get(transferID));
+                servedSnapshotAt.remove(transferID);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void releaseSnapshot(IndexSnapshot snapshot) {
+        try {
+            indexingService.releaseSnapshot(snapshot);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Start copying a partner's index files, dropping whatever was received of an earlier snapshot
+     */
+    private void requestSnapshot(Address partner) {
+        discardSnapshotTransfer();
+        snapshotTransfer = new IndexSnapshotTransfer(partner, transferWindow, System.currentTimeMillis());
+        sendSnapshotRequest(partner, snapshotTransfer.getId(), 0, transferWindow);
+    }
+
+    private void discardSnapshotTransfer() {
+        if (snapshotTransfer != null && snapshotTransfer.getStaged() != null) {
+            try {
+                snapshotTransfer.getStaged().discard();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        snapshotTransfer = null;
+    }
+
+    private void sendSnapshotRequest(Address destination, UUID transferID, int firstChunk, int credits) {
+        Snapshot.addIndexPropagationMessageSent();
+        triggerDependency.trigger(new IndexSnapshotRequest(self.getPeerAddress(), self.getPeerId(), destination, transferID, firstChunk, credits), networkPort);
+    }
+
+    /**
+     * Respond with one chunk of a point-in-time copy of our index files per credit
+     * The first request of a transfer takes the snapshot. Its commit is held until the last chunk is sent, or until
+     * the requesting node stops asking for chunks. Requests for chunks of a snapshot that was given up are ignored,
+     * and the requesting node starts over once its transfer times out
+     */
+    public Handler<IndexSnapshotRequest> handleIndexSnapshotRequest = new Handler<IndexSnapshotRequest>() {
+        @Override
+        public void handle(IndexSnapshotRequest event) {
+            IndexSnapshot snapshot = servedSnapshots.get(event.getTransferID());
+            try {
+                if (snapshot == null) {
+                    if (event.getFirstChunk() != 0) {
+                        return;
+                    }
+                    snapshot = indexingService.createSnapshot(SNAPSHOT_CHUNK_BYTES);
+                    Snapshot.indexSnapshotCreated(snapshot.getBytes());
+                    servedSnapshots.put(event.getTransferID(), snapshot);
+                }
+                servedSnapshotAt.put(event.getTransferID(), System.currentTimeMillis());
+
+                int lastChunk = Math.min(snapshot.getChunkCount(), event.getFirstChunk() + event.getCredits());
+                for (int chunk = event.getFirstChunk(); chunk < lastChunk; chunk++) {
+                    IndexSnapshotFile file = snapshot.getChunkFile(chunk);
+                    Snapshot.addIndexPropagationMessageSent();
+                    triggerDependency.trigger(new IndexSnapshotResponse(self.getPeerAddress(), self.getPeerId(), event.getSource(),
+                            event.getTransferID(), chunk, snapshot.getChunkCount(), snapshot.getMaxLuceneIndex(), snapshot.getPartitions(),
+                            file.getPartition(), file.getName(), indexingService.readSnapshotChunk(snapshot, chunk)), networkPort);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            if (event.getFirstChunk() + event.getCredits() >= snapshot.getChunkCount()) {
+                releaseSnapshot(snapshot);
+                servedSnapshots.remove(event.getTransferID());
+                servedSnapshotAt.remove(event.getTransferID());
+            }
+        }
+    };
+
+    /**
+     * Write a chunk of the snapshot being copied to us into its staged partitions, and grant a credit per chunk written
+     * Once all chunks are written, install the snapshot, then continue with incremental exchanges from the partner
+     * for anything newer. If the snapshot can't be installed, entries are pulled incrementally from then on
+     */
+    public Handler<IndexSnapshotResponse> handleIndexSnapshotResponse = new Handler<IndexSnapshotResponse>() {
+        @Override
+        public void handle(IndexSnapshotResponse event) {
+            IndexSnapshotTransfer transfer = snapshotTransfer;
+            if (transfer == null || !transfer.getId().equals(event.getTransferID())) {
+                return;
+            }
+
+            boolean installed = false;
+            try {
+                if (transfer.getStaged() == null) {
+                    transfer.setStaged(indexingService.stageSnapshot(event.getMaxLuceneIndex()));
+                }
+                if (event.getPartitions() != transfer.getStaged().getPartitions()) {
+                    throw new IOException("Snapshot has " + event.getPartitions() + " partitions, expected " + transfer.getStaged().getPartitions());
+                }
+
+                int written = transfer.chunkReceived(event, System.currentTimeMillis());
+                if (!transfer.isComplete(event.getChunkCount())) {
+                    int firstChunk = transfer.creditsGranted(written, event.getChunkCount());
+                    if (transfer.getGrantedUpTo() > firstChunk) {
+                        sendSnapshotRequest(transfer.getPartner(), transfer.getId(), firstChunk, transfer.getGrantedUpTo() - firstChunk);
+                    }
+                    return;
+                }
+
+                snapshotTransfer = null;
+                installed = indexingService.installSnapshot(transfer.getStaged());
+            } catch (IOException e) {
+                e.printStackTrace();
+                discardSnapshotTransfer();
+            }
+            if (!installed) {
+                snapshotFailed = true;
+                return;
+            }
+
+            Snapshot.indexSnapshotInstalled();
+            knownMaxIndex = Math.max(knownMaxIndex, event.getMaxLuceneIndex());
+            checkCaughtUp(true);
+            startTransfer(event.getSource(), indexingService.getContiguousIndex(), Integer.MAX_VALUE, new ArrayList<IndexRangeDigest>());
+        }
+    };
+
+    /**
+     * Receive a Cyclon sample from the Search-layer. Used as push partners along with the TMan sample
+     */
+    public void receiveCyclonSample(List<PeerAddress> cyclonSample) {
+        cyclonPartners = cyclonSample;
+    }
+
+    /**
+     * Eagerly push entries just indexed by the leader to random partners. Pulling remains the way missed entries are repaired
+     */
+    public void pushNewEntries(List<IndexEntry> entries) {
+        if (pushFanout > 0 && !entries.isEmpty()) {
+            push(entries, pushTtl);
+        }
+    }
+
+    /**
+     * Send the entries to pushFanout distinct random partners from the latest TMan and Cyclon samples
+     */
+    private void push(List<IndexEntry> entries, int ttl) {
+        LinkedHashSet<PeerAddress> candidates = new LinkedHashSet<PeerAddress>(tmanPartners);
+        candidates.addAll(cyclonPartners);
+        candidates.remove(self);
+        List<PeerAddress> partners = new ArrayList<PeerAddress>(candidates);
+        Collections.shuffle(partners, randomGenerator);
+
+        byte[] encodedEntries = IndexEntryCodec.encode(entries);
+        for (PeerAddress partner : partners.subList(0, Math.min(pushFanout, partners.size()))) {
             Snapshot.addIndexPropagationMessageSent();
-            triggerDependency.trigger(new IndexExchangeRequest(self.getPeerAddress(), self.getPeerId(), tmanSample.get(randomGenerator.nextInt(tmanSample.size())).getPeerAddress(), indexingService.getMaxLuceneIndex()), networkPort);
+            Snapshot.indexPushMessageSent();
+            triggerDependency.trigger(new IndexPushMessage(self.getPeerAddress(), self.getPeerId(), partner.getPeerAddress(), encodedEntries, ttl), networkPort);
         }
     }
 
     /**
-     * Respond with the index entries that are higher than the requesting nodes max, if any
-     * TODO: Doesn't respond if there's nothing to give. Not good for failure detection
+     * Add pushed entries to our local index, and forward the ones we didn't already have until the TTL runs out
+     * Only forwarding new entries keeps a push from circulating among peers that already received it
+     */
+    public Handler<IndexPushMessage> handleIndexPushMessage = new Handler<IndexPushMessage>() {
+        @Override
+        public void handle(IndexPushMessage event) {
+            List<IndexEntry> newEntries;
+            try {
+                newEntries = indexingService.addEntries(IndexEntryCodec.decode(event.getEncodedEntries()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (newEntries.isEmpty()) {
+                return;
+            }
+            entriesReceived(newEntries);
+            Snapshot.indexEntriesPushed(newEntries.size());
+
+            if (event.getTtl() > 1) {
+                push(newEntries, event.getTtl() - 1);
+            }
+        }
+    };
+
+    private void sendRequest(Address destination, int maxIndexID, int lastIndexID, int credits, UUID transferID, List<IndexRangeDigest> digests) {
+        Snapshot.addIndexPropagationMessageSent();
+        Snapshot.indexDigestBytesSent(digests.size() * IndexRangeDigest.BYTES);
+        triggerDependency.trigger(new IndexExchangeRequest(self.getPeerAddress(), self.getPeerId(), destination, maxIndexID, lastIndexID, credits, transferID, digests), networkPort);
+    }
+
+    /**
+     * Split (afterIndex, lastIndex] into at most DIGEST_FANOUT ranges, no smaller than DIGEST_LEAF_SIZE, and digest each
+     */
+    private List<IndexRangeDigest> createDigests(int afterIndex, int lastIndex) {
+        List<IndexRangeDigest> digests = new ArrayList<IndexRangeDigest>();
+        int rangeSize = Math.max(DIGEST_LEAF_SIZE, (lastIndex - afterIndex + DIGEST_FANOUT - 1) / DIGEST_FANOUT);
+        for (int start = afterIndex; start < lastIndex; start += rangeSize) {
+            int end = Math.min(start + rangeSize, lastIndex);
+            digests.add(new IndexRangeDigest(start, end, indexingService.getRangeDigest(start, end)));
+        }
+        return digests;
+    }
+
+    /**
+     * Respond with one chunk of index entries per credit, starting at the requesting nodes max, as long as we have more
+     * Chunks are built and sent one at a time, so a large backlog is never held in memory as a whole.
+     * Chunks end at multiples of the chunk size, so that chunks can be shared between requests and cached
+     * Also compare the requesting node's range digests with our own. Entries of small mismatching ranges are sent
+     * along, larger mismatching ranges are returned for the requesting node to split and digest again
+     * At most a chunk of repair entries is sent per response. Small ranges beyond that are returned as mismatching too,
+     * so the requesting node asks for them again with its next request, one response at a time
+     * If there's nothing to give, reply that the requesting node is up to date, so it can tell we're alive
+     * Every reply carries the transfer id of the request, so the requesting node can tell which transfer it belongs to
      */
     public Handler<IndexExchangeRequest> handleIndexExchangeRequest = new Handler<IndexExchangeRequest>() {
         @Override
         public void handle(IndexExchangeRequest event) {
-            if (event.getMaxIndexID() < indexingService.getMaxLuceneIndex()) {
+            int maxIndex = indexingService.getMaxLuceneIndex();
+
+            List<IndexEntry> repairEntries = new ArrayList<IndexEntry>();
+            List<IndexRangeDigest> mismatchedRanges = new ArrayList<IndexRangeDigest>();
+            for (IndexRangeDigest digest : event.getDigests()) {
+                // The requesting node is ahead of us in ranges beyond our max, so those can't be repaired from here
+                if (digest.getLastIndex() > maxIndex) {
+                    continue;
+                }
+                long ownDigest = indexingService.getRangeDigest(digest.getAfterIndex(), digest.getLastIndex());
+                if (ownDigest == digest.getDigest()) {
+                    continue;
+                }
+                if (digest.getLastIndex() - digest.getAfterIndex() <= DIGEST_LEAF_SIZE) {
+                    List<IndexEntry> leafEntries = indexingService.getEntries(digest.getAfterIndex(), digest.getLastIndex());
+                    if (!repairEntries.isEmpty() && repairEntries.size() + leafEntries.size() > chunkSize) {
+                        mismatchedRanges.add(new IndexRangeDigest(digest.getAfterIndex(), digest.getLastIndex(), ownDigest));
+                    } else {
+                        repairEntries.addAll(leafEntries);
+                    }
+                } else {
+                    mismatchedRanges.add(new IndexRangeDigest(digest.getAfterIndex(), digest.getLastIndex(), ownDigest));
+                }
+            }
+
+            // Repairs travel with the first chunk, or alone if there are no chunks to send
+            int afterIndex = event.getMaxIndexID();
+            int lastIndex = Math.min(maxIndex, event.getLastIndexID());
+            boolean sent = false;
+            for (int i = 0; i < event.getCredits() && afterIndex < lastIndex; i++) {
+                int pageLastIndex = Math.min(afterIndex - afterIndex % chunkSize + chunkSize, lastIndex);
+                sendResponse(event.getSource(), getEncodedPage(afterIndex, pageLastIndex), pageLastIndex, pageLastIndex < lastIndex, maxIndex,
+                        sent ? new ArrayList<IndexEntry>() : repairEntries, sent ? new ArrayList<IndexRangeDigest>() : mismatchedRanges, event.getTransferID());
+                sent = true;
+                afterIndex = pageLastIndex;
+            }
+
+            if (!sent && (!repairEntries.isEmpty() || !mismatchedRanges.isEmpty())) {
+                sendResponse(event.getSource(), IndexEntryCodec.encode(new ArrayList<IndexEntry>()), event.getMaxIndexID(), false, maxIndex,
+                        repairEntries, mismatchedRanges, event.getTransferID());
+            } else if (!sent) {
                 Snapshot.addIndexPropagationMessageSent();
-                triggerDependency.trigger(new IndexExchangeResponse(self.getPeerAddress(), self.getPeerId(), event.getSource(), indexingService.getDocumentsSinceIndex(event.getMaxIndexID())), networkPort);
+                Snapshot.indexExchangeUpToDateSent();
+                triggerDependency.trigger(new IndexExchangeUpToDate(self.getPeerAddress(), self.getPeerId(), event.getSource(), maxIndex, event.getTransferID()), networkPort);
             }
         }
     };
 
     /**
-     * Add the received lucene documents to our local index
+     * Return the encoded entries in (afterIndex, lastIndex], from the page cache if they were encoded since the index last changed
+     */
+    private byte[] getEncodedPage(int afterIndex, int lastIndex) {
+        byte[] encodedEntries = pageCache.get(indexingService.getIndexGeneration(), afterIndex, lastIndex);
+        if (encodedEntries != null) {
+            return encodedEntries;
+        }
+
+        List<IndexEntry> entries = indexingService.getEntries(afterIndex, lastIndex);
+
+        encodedEntries = IndexEntryCodec.encode(entries);
+        Snapshot.indexExchangeEntriesEncoded(entries.size(), encodedEntries.length);
+
+        pageCache.put(afterIndex, lastIndex, encodedEntries);
+        return encodedEntries;
+    }
+
+    private void sendResponse(Address destination, byte[] encodedEntries, int resumeIndex, boolean hasMore, int maxIndex,
+                              List<IndexEntry> repairEntries, List<IndexRangeDigest> mismatchedRanges, UUID transferID) {
+        byte[] encodedRepairEntries = IndexEntryCodec.encode(repairEntries);
+        Snapshot.indexExchangeEntriesEncoded(repairEntries.size(), encodedRepairEntries.length);
+
+        Snapshot.addIndexPropagationMessageSent();
+        Snapshot.indexDigestBytesSent(mismatchedRanges.size() * IndexRangeDigest.BYTES);
+        triggerDependency.trigger(new IndexExchangeResponse(self.getPeerAddress(), self.getPeerId(), destination, encodedEntries, resumeIndex, hasMore,
+                maxIndex, encodedRepairEntries, mismatchedRanges, transferID), networkPort);
+    }
+
+    /**
+     * Decode the received entries and add them to our local index
+     * If the sender has more entries than it has been granted credits for, grant it a credit for the chunk just consumed
+     * Mismatching ranges are split, and their digests sent along with the next request
+     * Only chunks of the active transfer from the sender count towards it, are granted credits, and can end it.
+     * Chunks of transfers that were given up are still indexed, and the next TMan round pulls whatever is left
      */
     public Handler<IndexExchangeResponse> handleIndexExchangeResponse = new Handler<IndexExchangeResponse>() {
         @Override
         public void handle(IndexExchangeResponse event) {
+            List<IndexEntry> entries = IndexEntryCodec.decode(event.getEncodedEntries());
+            List<IndexEntry> repairEntries = IndexEntryCodec.decode(event.getEncodedRepairEntries());
+
+            probeReplied(event.getSource());
+            knownMaxIndex = Math.max(knownMaxIndex, event.getSourceMaxIndexID());
+            if (catchUpStartedAt == 0 && indexingService.getContiguousIndex() == 0 && event.getSourceMaxIndexID() > 0) {
+                catchUpStartedAt = System.currentTimeMillis();
+                catchUpTarget = event.getSourceMaxIndexID();
+            }
+
+            // Chunks are dropped while a snapshot is on its way, since an index that isn't empty can't install it
+            if (shouldCopySnapshot(event.getSourceMaxIndexID())) {
+                transfers.remove(event.getSource());
+                if (snapshotTransfer == null || System.currentTimeMillis() - snapshotTransfer.getLastChunkAt() > SNAPSHOT_TIMEOUT) {
+                    requestSnapshot(event.getSource());
+                }
+                return;
+            }
+
             try {
-                indexingService.addDocuments(event.documents);
+                entriesReceived(indexingService.addEntries(entries));
+                List<IndexEntry> repaired = indexingService.addEntries(repairEntries);
+                entriesReceived(repaired);
+                Snapshot.indexEntriesRepaired(repaired.size());
             } catch (IOException e) {
                 e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
             }
+
+            List<IndexRangeDigest> digests = new ArrayList<IndexRangeDigest>();
+            for (IndexRangeDigest range : event.getMismatchedRanges()) {
+                digests.addAll(createDigests(range.getAfterIndex(), range.getLastIndex()));
+            }
+
+            IndexTransfer transfer = transfers.get(event.getSource());
+            if (transfer != null && !transfer.getId().equals(event.getTransferID())) {
+                transfer = null;
+            }
+            if (transfer != null) {
+                transfer.chunkReceived(entries.size(), event.getEncodedEntries().length, System.currentTimeMillis());
+                Snapshot.indexTransferChunkReceived(event.getEncodedEntries().length, transfer.getBufferedBytes());
+            }
+
+            if (event.hasMore() && transfer != null && transfer.getGrantedUpTo() < Math.min(event.getSourceMaxIndexID(), transfer.getLastIndex())) {
+                sendRequest(event.getSource(), transfer.getGrantedUpTo(), transfer.getLastIndex(), 1, transfer.getId(), digests);
+                transfer.creditGranted(chunkSize);
+            } else if (!digests.isEmpty()) {
+                sendRequest(event.getSource(), indexingService.getMaxLuceneIndex(), Integer.MAX_VALUE, 0, null, digests);
+            }
+
+            if (!event.hasMore() && transfer != null) {
+                transfers.remove(event.getSource());
+                Snapshot.indexTransferCompleted(transfer.getEntries(), transfer.getBytes(), System.currentTimeMillis() - transfer.getStartedAt());
+            }
         }
     };
 }
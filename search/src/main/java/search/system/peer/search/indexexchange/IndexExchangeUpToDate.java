@@ -0,0 +1,37 @@
+package search.system.peer.search.indexexchange;
+
+import se.sics.kompics.address.Address;
+import se.sics.kompics.network.Message;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+
+/**
+ * Reply to an index exchange request when the source has nothing to send: it is up to date at maxIndexID
+ */
+public class IndexExchangeUpToDate extends Message {
+    int maxIndexID;
+    BigInteger sourcePeerID;
+    // The transfer of the request this responds to, or null if the request only carried digests
+    UUID transferID;
+
+    public IndexExchangeUpToDate(Address source, BigInteger sourcePeerID, Address destination, int maxIndexID, UUID transferID) {
+        super(source, destination);
+        this.maxIndexID = maxIndexID;
+        this.sourcePeerID = sourcePeerID;
+        this.transferID = transferID;
+    }
+
+    public int getMaxIndexID() {
+        return maxIndexID;
+    }
+
+    public BigInteger getSourcePeerID(){
+        return sourcePeerID;
+    }
+
+    public UUID getTransferID() {
+        return transferID;
+    }
+}
@@ -0,0 +1,34 @@
+package search.system.peer.search.indexexchange;
+
+import se.sics.kompics.address.Address;
+import se.sics.kompics.network.Message;
+
+import java.math.BigInteger;
+
+
+public class IndexPushMessage extends Message {
+    // The pushed entries, encoded with IndexEntryCodec
+    byte[] encodedEntries;
+    BigInteger sourcePeerID;
+    // The number of hops the entries may still be pushed, including this one
+    int ttl;
+
+    public IndexPushMessage(Address source, BigInteger sourcePeerID, Address destination, byte[] encodedEntries, int ttl) {
+        super(source, destination);
+        this.encodedEntries = encodedEntries;
+        this.sourcePeerID = sourcePeerID;
+        this.ttl = ttl;
+    }
+
+    public byte[] getEncodedEntries() {
+        return encodedEntries;
+    }
+
+    public BigInteger getSourcePeerID(){
+        return sourcePeerID;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+}
@@ -0,0 +1,31 @@
+package search.system.peer.search.indexexchange;
+
+/**
+ * The digest of the index ids a peer holds in the range (afterIndex, lastIndex]
+ */
+public class IndexRangeDigest {
+    // The size of a range digest on the wire: two ints and a long
+    public static final int BYTES = 16;
+
+    private final int afterIndex;
+    private final int lastIndex;
+    private final long digest;
+
+    public IndexRangeDigest(int afterIndex, int lastIndex, long digest) {
+        this.afterIndex = afterIndex;
+        this.lastIndex = lastIndex;
+        this.digest = digest;
+    }
+
+    public int getAfterIndex() {
+        return afterIndex;
+    }
+
+    public int getLastIndex() {
+        return lastIndex;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+}
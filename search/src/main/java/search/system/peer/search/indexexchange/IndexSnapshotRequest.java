@@ -0,0 +1,45 @@
+package search.system.peer.search.indexexchange;
+
+import se.sics.kompics.address.Address;
+import se.sics.kompics.network.Message;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+
+/**
+ * Request for chunks of a snapshot of the whole local index, sent by a peer with an empty index that is far behind
+ * The first request of a transfer asks for a window of chunks starting at chunk 0, and has the source take the snapshot
+ */
+public class IndexSnapshotRequest extends Message {
+    BigInteger sourcePeerID;
+    // The snapshot transfer the requested chunks belong to
+    UUID transferID;
+    // The first chunk requested, and the number of chunks the requester is ready to receive from it on
+    int firstChunk;
+    int credits;
+
+    public IndexSnapshotRequest(Address source, BigInteger sourcePeerID, Address destination, UUID transferID, int firstChunk, int credits) {
+        super(source, destination);
+        this.sourcePeerID = sourcePeerID;
+        this.transferID = transferID;
+        this.firstChunk = firstChunk;
+        this.credits = credits;
+    }
+
+    public BigInteger getSourcePeerID(){
+        return sourcePeerID;
+    }
+
+    public UUID getTransferID() {
+        return transferID;
+    }
+
+    public int getFirstChunk() {
+        return firstChunk;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+}
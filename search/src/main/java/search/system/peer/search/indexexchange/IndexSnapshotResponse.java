@@ -0,0 +1,76 @@
+package search.system.peer.search.indexexchange;
+
+import se.sics.kompics.address.Address;
+import se.sics.kompics.network.Message;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+
+/**
+ * One chunk of a snapshot: a byte range of one index file. Chunks are numbered in the order the files are written
+ */
+public class IndexSnapshotResponse extends Message {
+    BigInteger sourcePeerID;
+    UUID transferID;
+    // The number of this chunk, and of all chunks of the snapshot
+    int chunk;
+    int chunkCount;
+    // The highest index id held by the snapshot, and the number of partitions it has
+    int maxLuceneIndex;
+    int partitions;
+    // The file the bytes belong to, and the bytes
+    int partition;
+    String fileName;
+    byte[] bytes;
+
+    public IndexSnapshotResponse(Address source, BigInteger sourcePeerID, Address destination, UUID transferID, int chunk, int chunkCount,
+                                 int maxLuceneIndex, int partitions, int partition, String fileName, byte[] bytes) {
+        super(source, destination);
+        this.sourcePeerID = sourcePeerID;
+        this.transferID = transferID;
+        this.chunk = chunk;
+        this.chunkCount = chunkCount;
+        this.maxLuceneIndex = maxLuceneIndex;
+        this.partitions = partitions;
+        this.partition = partition;
+        this.fileName = fileName;
+        this.bytes = bytes;
+    }
+
+    public BigInteger getSourcePeerID(){
+        return sourcePeerID;
+    }
+
+    public UUID getTransferID() {
+        return transferID;
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public int getMaxLuceneIndex() {
+        return maxLuceneIndex;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+}
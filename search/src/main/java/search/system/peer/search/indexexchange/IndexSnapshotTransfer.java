@@ -0,0 +1,100 @@
+package search.system.peer.search.indexexchange;
+
+import se.sics.kompics.address.Address;
+import search.system.peer.search.indexing.StagedIndexSnapshot;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * The receiving side of a chunked copy of a partner's index files
+ * The partner sends one chunk per credit granted to it, like the chunks of an IndexTransfer. Chunks are written to the
+ * staged snapshot in order. Chunks arriving ahead of one still in flight wait for it, and there are at most a window of them
+ */
+public class IndexSnapshotTransfer {
+    private final UUID id = UUID.randomUUID();
+    private final Address partner;
+
+    // The chunks requested so far are the ones before grantedUpTo. The ones before nextChunk are written
+    private int grantedUpTo;
+    private int nextChunk = 0;
+    private final HashMap<Integer, IndexSnapshotResponse> pendingChunks = new HashMap<Integer, IndexSnapshotResponse>();
+    private long bytes = 0;
+
+    // Created when the first chunk arrives, which tells the number of partitions and the max index id of the snapshot
+    private StagedIndexSnapshot staged = null;
+
+    // When the last chunk arrived, or when the transfer started if none has
+    private long lastChunkAt;
+
+    public IndexSnapshotTransfer(Address partner, int credits, long startedAt) {
+        this.partner = partner;
+        this.grantedUpTo = credits;
+        this.lastChunkAt = startedAt;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public Address getPartner() {
+        return partner;
+    }
+
+    public StagedIndexSnapshot getStaged() {
+        return staged;
+    }
+
+    public void setStaged(StagedIndexSnapshot staged) {
+        this.staged = staged;
+    }
+
+    public long getLastChunkAt() {
+        return lastChunkAt;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Write the chunk to the staged snapshot, along with the chunks that were waiting for it
+     * Returns the number of chunks written, each of which frees a credit
+     */
+    public int chunkReceived(IndexSnapshotResponse chunk, long now) throws IOException {
+        lastChunkAt = now;
+        if (chunk.getChunk() < nextChunk) {
+            return 0;
+        }
+        pendingChunks.put(chunk.getChunk(), chunk);
+
+        int written = 0;
+        IndexSnapshotResponse next;
+        while ((next = pendingChunks.remove(nextChunk)) != null) {
+            staged.write(next.getPartition(), next.getFileName(), next.getBytes(), next.getBytes().length);
+            bytes += next.getBytes().length;
+            nextChunk++;
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Grant credits for up to the given number of chunks beyond the ones requested so far
+     * Returns the first chunk of the new credits. getGrantedUpTo() tells where they end
+     */
+    public int creditsGranted(int credits, int chunkCount) {
+        int firstChunk = grantedUpTo;
+        grantedUpTo = Math.min(chunkCount, grantedUpTo + credits);
+        return firstChunk;
+    }
+
+    public int getGrantedUpTo() {
+        return grantedUpTo;
+    }
+
+    public boolean isComplete(int chunkCount) {
+        return nextChunk >= chunkCount;
+    }
+}
@@ -0,0 +1,82 @@
+package search.system.peer.search.indexexchange;
+
+import java.util.UUID;
+
+/**
+ * The receiving side of a chunked transfer of index entries from one partner
+ * The partner sends one chunk per credit granted to it, so at most a window of chunks is in flight at any time
+ * Requests carry the transfer's id and replies echo it, so replies to other requests can't end the transfer
+ */
+public class IndexTransfer {
+    // The last index id covered by the chunks granted so far, and the last index id the transfer covers
+    private final UUID id = UUID.randomUUID();
+    private int grantedUpTo;
+    private final int lastIndex;
+    private final long startedAt;
+    // When the last chunk arrived, or when the transfer started if none has
+    private long lastChunkAt;
+
+    private int entries = 0;
+    private long bytes = 0;
+
+    // Chunks granted credits but not received yet, and the largest chunk received, which bound the bytes in flight
+    private int chunksInFlight;
+    private int maxChunkBytes = 0;
+
+    public IndexTransfer(int grantedUpTo, int lastIndex, int credits, long startedAt) {
+        this.grantedUpTo = grantedUpTo;
+        this.chunksInFlight = credits;
+        this.lastIndex = lastIndex;
+        this.startedAt = startedAt;
+        this.lastChunkAt = startedAt;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public int getGrantedUpTo() {
+        return grantedUpTo;
+    }
+
+    public int getLastIndex() {
+        return lastIndex;
+    }
+
+    public void creditGranted(int chunkSize) {
+        grantedUpTo += chunkSize;
+        chunksInFlight++;
+    }
+
+    public void chunkReceived(int chunkEntries, int chunkBytes, long now) {
+        entries += chunkEntries;
+        bytes += chunkBytes;
+        lastChunkAt = now;
+        chunksInFlight = Math.max(0, chunksInFlight - 1);
+        maxChunkBytes = Math.max(maxChunkBytes, chunkBytes);
+    }
+
+    /**
+     * Return the bytes this transfer may buffer: the chunk just received, and the chunks still in flight at the
+     * size of the largest one so far
+     */
+    public long getBufferedBytes() {
+        return (long)(chunksInFlight + 1) * maxChunkBytes;
+    }
+
+    public long getLastChunkAt() {
+        return lastChunkAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
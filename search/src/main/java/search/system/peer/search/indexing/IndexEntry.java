@@ -0,0 +1,42 @@
+package search.system.peer.search.indexing;
+
+/**
+ * An entry of the global index: the index id assigned by the leader, and the entry's key and value
+ * Entries added while pre-analysis is on also carry the analyzed title, so receivers don't have to analyze it
+ */
+public class IndexEntry {
+    private final int indexId;
+    private final String key;
+    private final String value;
+    private final IndexTokens tokens;
+
+    public IndexEntry(int indexId, String key, String value) {
+        this(indexId, key, value, null);
+    }
+
+    public IndexEntry(int indexId, String key, String value, IndexTokens tokens) {
+        this.indexId = indexId;
+        this.key = key;
+        this.value = value;
+        this.tokens = tokens;
+    }
+
+    public int getIndexId() {
+        return indexId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Return the analyzed key, or null if the entry wasn't pre-analyzed
+     */
+    public IndexTokens getTokens() {
+        return tokens;
+    }
+}
@@ -0,0 +1,194 @@
+package search.system.peer.search.indexing;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact append-only log of the index entries held by the peer, used as the source when exchanging entries
+ * Records are appended to one byte array as (index id, key, value, tokens), in the order entries arrive. Pushes,
+ * parallel pulls and repairs deliver entries out of id order, so records aren't sorted by id in the array
+ * An offset table indexed by index id points out each record. Reading all entries since an id walks the table in id
+ * order and reads each record where it lies, which is sequential only where entries arrived in id order, but never
+ * involves a lucene search
+ * The log also keeps a digest of the held ids, so that peers can find the id ranges they differ in
+ */
+public class IndexEntryLog {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    // offsets[id] is the offset of the record with that index id, plus one. 0 if the entry isn't held
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // Fenwick tree over index ids of the summed hashes of the held ids, so any range digest is two prefix sums
+    private long[] digestTree = new long[INITIAL_CAPACITY];
+
+    /**
+     * Append an entry to the log. Returns false, and leaves the log unchanged, if the index id is already held
+     */
+    public boolean append(IndexEntry entry) {
+        int indexId = entry.getIndexId();
+        if (contains(indexId)) {
+            return false;
+        }
+
+        byte[] key = entry.getKey().getBytes(UTF8);
+        byte[] value = entry.getValue().getBytes(UTF8);
+        IndexTokens tokens = entry.getTokens();
+        byte[][] terms = new byte[tokens == null ? 0 : tokens.size()][];
+        int termsLength = 0;
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = tokens.getTerm(i).getBytes(UTF8);
+            termsLength += 8 + terms[i].length;
+        }
+        ensureDataCapacity(length + 16 + key.length + value.length + termsLength);
+        ensureOffsetCapacity(indexId + 1);
+
+        offsets[indexId] = length + 1;
+        addToDigest(indexId);
+        writeInt(indexId);
+        writeBytes(key);
+        writeBytes(value);
+        // The token count is -1 for an entry that wasn't pre-analyzed
+        writeInt(tokens == null ? -1 : terms.length);
+        for (int i = 0; i < terms.length; i++) {
+            writeInt(tokens.getPositionIncrement(i));
+            writeBytes(terms[i]);
+        }
+        size++;
+        return true;
+    }
+
+    public boolean contains(int indexId) {
+        return indexId > 0 && indexId < offsets.length && offsets[indexId] != 0;
+    }
+
+    /**
+     * Return the number of entries in the log
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the held entries with an index id in (afterIndex, lastIndex], in id order
+     */
+    public List<IndexEntry> getEntries(int afterIndex, int lastIndex) {
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+        int last = Math.min(lastIndex, offsets.length - 1);
+        for (int indexId = Math.max(afterIndex + 1, 1); indexId <= last; indexId++) {
+            if (offsets[indexId] != 0) {
+                entries.add(read(offsets[indexId] - 1));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Return a digest of the held index ids in (afterIndex, lastIndex]
+     * Two logs holding the same ids in a range have the same digest for it, whatever order the entries were added in
+     */
+    public long getRangeDigest(int afterIndex, int lastIndex) {
+        return prefixDigest(lastIndex) - prefixDigest(afterIndex);
+    }
+
+    private long prefixDigest(int indexId) {
+        long digest = 0;
+        for (int i = Math.min(indexId, digestTree.length - 1); i > 0; i -= i & -i) {
+            digest += digestTree[i];
+        }
+        return digest;
+    }
+
+    private void addToDigest(int indexId) {
+        long hash = hash(indexId);
+        for (int i = indexId; i < digestTree.length; i += i & -i) {
+            digestTree[i] += hash;
+        }
+    }
+
+    /**
+     * Spread the bits of an index id over a long, so that sums of hashes of different id sets rarely collide
+     */
+    private static long hash(int indexId) {
+        long h = indexId * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private IndexEntry read(int offset) {
+        int indexId = readInt(offset);
+        offset += 4;
+        int keyLength = readInt(offset);
+        offset += 4;
+        String key = new String(data, offset, keyLength, UTF8);
+        offset += keyLength;
+        int valueLength = readInt(offset);
+        offset += 4;
+        String value = new String(data, offset, valueLength, UTF8);
+        offset += valueLength;
+        int tokenCount = readInt(offset);
+        offset += 4;
+        if (tokenCount < 0) {
+            return new IndexEntry(indexId, key, value);
+        }
+
+        String[] terms = new String[tokenCount];
+        int[] positionIncrements = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            positionIncrements[i] = readInt(offset);
+            offset += 4;
+            int termLength = readInt(offset);
+            offset += 4;
+            terms[i] = new String(data, offset, termLength, UTF8);
+            offset += termLength;
+        }
+        return new IndexEntry(indexId, key, value, new IndexTokens(terms, positionIncrements));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeInt(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeInt(int v) {
+        data[length++] = (byte)(v >>> 24);
+        data[length++] = (byte)(v >>> 16);
+        data[length++] = (byte)(v >>> 8);
+        data[length++] = (byte)v;
+    }
+
+    private int readInt(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private void ensureDataCapacity(int capacity) {
+        if (capacity > data.length) {
+            byte[] grown = new byte[Math.max(capacity, data.length * 2)];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+        }
+    }
+
+    private void ensureOffsetCapacity(int capacity) {
+        if (capacity > offsets.length) {
+            int[] grown = new int[Math.max(capacity, offsets.length * 2)];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+
+            // The tree layout depends on its size, so it is rebuilt from the held ids
+            digestTree = new long[offsets.length];
+            for (int indexId = 1; indexId < offsets.length; indexId++) {
+                if (offsets[indexId] != 0) {
+                    addToDigest(indexId);
+                }
+            }
+        }
+    }
+}
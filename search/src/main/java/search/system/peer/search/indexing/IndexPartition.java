@@ -0,0 +1,151 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.Version;
+import search.simulator.snapshot.Snapshot;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One partition of the local lucene index
+ * The writer is kept open for the lifetime of the peer. Readers are near-real-time views of it
+ */
+class IndexPartition {
+    // Key of the commit user data holding the highest index id at the time of the commit
+    private static final String COMMIT_MAX_LUCENE_INDEX = "maxLuceneIndex";
+
+    private final Directory directory;
+    private final SnapshotDeletionPolicy snapshotPolicy;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+
+    // Incremented on every write to the partition, and the value it had when the searcher was last reopened
+    private long generation = 0;
+    private long searcherGeneration = 0;
+
+    /**
+     * Open the partition stored in directory, creating it if it doesn't exist
+     */
+    IndexPartition(Directory directory, Analyzer analyzer) throws IOException {
+        this(directory, analyzer, IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    }
+
+    /**
+     * Open the partition stored in directory. With OpenMode.APPEND, a directory without a readable index fails to open
+     * instead of being initialized as an empty one
+     */
+    IndexPartition(Directory directory, Analyzer analyzer, IndexWriterConfig.OpenMode openMode) throws IOException {
+        this.directory = directory;
+        // Snapshotted commits are kept until released, so their files can be copied while the index is written to
+        snapshotPolicy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, analyzer);
+        config.setIndexDeletionPolicy(snapshotPolicy);
+        config.setOpenMode(openMode);
+        // An index must be initialized before it can be searched
+        writer = new IndexWriter(directory, config);
+        writer.commit();
+        searcherManager = new SearcherManager(writer, true, null);
+    }
+
+    /**
+     * Return the highest index id recorded by the last commit of the partition, or 0 if there is none
+     */
+    int getCommittedMaxLuceneIndex() {
+        String committed = writer.getCommitData().get(COMMIT_MAX_LUCENE_INDEX);
+        return committed == null ? 0 : Integer.parseInt(committed);
+    }
+
+    /**
+     * Durably commit everything added so far, recording the highest index id of the local index
+     */
+    void commit(int maxLuceneIndex) throws IOException {
+        Map<String, String> commitData = new HashMap<String, String>();
+        commitData.put(COMMIT_MAX_LUCENE_INDEX, "" + maxLuceneIndex);
+        writer.setCommitData(commitData);
+        writer.commit();
+    }
+
+    void addDocuments(List<Document> documents) throws IOException {
+        if (documents.isEmpty()) {
+            return;
+        }
+        writer.addDocuments(documents);
+        generation++;
+    }
+
+    /**
+     * Acquire a searcher that sees all documents added so far. Must be given back with releaseSearcher()
+     * The near-real-time searcher is only reopened if the partition has been written to since the last reopen
+     */
+    IndexSearcher acquireSearcher() throws IOException {
+        if (searcherGeneration != generation) {
+            searcherManager.maybeRefreshBlocking();
+            searcherGeneration = generation;
+            Snapshot.indexSearcherReopened();
+        }
+        return searcherManager.acquire();
+    }
+
+    void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Commit, and hold the commit under the given id until released. Returns the commit's files and their sizes
+     * The deletion policy keeps the files of a held commit, so they can be read while the index is written to
+     */
+    Map<String, Long> snapshot(int maxLuceneIndex, String id) throws IOException {
+        commit(maxLuceneIndex);
+        IndexCommit indexCommit = snapshotPolicy.snapshot(id);
+        try {
+            Map<String, Long> files = new TreeMap<String, Long>();
+            for (String name : indexCommit.getFileNames()) {
+                files.put(name, directory.fileLength(name));
+            }
+            return files;
+        } catch (IOException e) {
+            snapshotPolicy.release(id);
+            throw e;
+        }
+    }
+
+    void releaseSnapshot(String id) throws IOException {
+        snapshotPolicy.release(id);
+    }
+
+    /**
+     * Read length bytes of a file of a held commit, starting at offset
+     * With an MMapDirectory the input reads from a mapping of the file, so the bytes are copied once, into the chunk
+     */
+    byte[] readFile(String name, long offset, int length) throws IOException {
+        IndexInput input = directory.openInput(name, IOContext.READONCE);
+        try {
+            byte[] bytes = new byte[length];
+            input.seek(offset);
+            input.readBytes(bytes, 0, length);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+    }
+}
@@ -0,0 +1,84 @@
+package search.system.peer.search.indexing;
+
+import java.util.List;
+
+/**
+ * A consistent point-in-time copy of the files of a local index, sent to another peer in chunks
+ * The files aren't copied. Their commit is held by each partition until the snapshot is released, so the files
+ * stay readable while the index is written to
+ * Every file is split into chunks of at most chunkBytes, with at least one chunk per file so empty files are sent too
+ */
+public class IndexSnapshot {
+    // The id the commit is held under in each partition
+    private final String id;
+    private final int maxLuceneIndex;
+    private final int partitions;
+    private final List<IndexSnapshotFile> files;
+    private final int chunkBytes;
+    private final int chunkCount;
+
+    public IndexSnapshot(String id, int maxLuceneIndex, int partitions, List<IndexSnapshotFile> files, int chunkBytes, int chunkCount) {
+        this.id = id;
+        this.maxLuceneIndex = maxLuceneIndex;
+        this.partitions = partitions;
+        this.files = files;
+        this.chunkBytes = chunkBytes;
+        this.chunkCount = chunkCount;
+    }
+
+    /**
+     * Return the number of chunks a file of the given length is split into
+     */
+    static int getChunks(long length, int chunkBytes) {
+        return (int) Math.max(1, (length + chunkBytes - 1) / chunkBytes);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getMaxLuceneIndex() {
+        return maxLuceneIndex;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public List<IndexSnapshotFile> getFiles() {
+        return files;
+    }
+
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Return the file a chunk belongs to
+     */
+    public IndexSnapshotFile getChunkFile(int chunk) {
+        IndexSnapshotFile chunkFile = null;
+        for (IndexSnapshotFile file : files) {
+            if (file.getFirstChunk() > chunk) {
+                break;
+            }
+            chunkFile = file;
+        }
+        return chunkFile;
+    }
+
+    /**
+     * Return the total size of all files in the snapshot
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (IndexSnapshotFile file : files) {
+            bytes += file.getLength();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,34 @@
+package search.system.peer.search.indexing;
+
+/**
+ * One file of an index snapshot: the partition it belongs to, its name and size, and the first chunk it is sent in
+ */
+public class IndexSnapshotFile {
+    private final int partition;
+    private final String name;
+    private final long length;
+    private final int firstChunk;
+
+    public IndexSnapshotFile(int partition, String name, long length, int firstChunk) {
+        this.partition = partition;
+        this.name = name;
+        this.length = length;
+        this.firstChunk = firstChunk;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getFirstChunk() {
+        return firstChunk;
+    }
+}
@@ -0,0 +1,94 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The analyzed form of an index entry's title: its terms, and the position increment of each term
+ * The leader analyzes a title once, and peers index the terms directly instead of running the analyzer again
+ */
+public class IndexTokens {
+    private final String[] terms;
+    private final int[] positionIncrements;
+
+    public IndexTokens(String[] terms, int[] positionIncrements) {
+        this.terms = terms;
+        this.positionIncrements = positionIncrements;
+    }
+
+    /**
+     * Run the analyzer over text, as lucene does when it indexes the text in field
+     */
+    public static IndexTokens analyze(Analyzer analyzer, String field, String text) throws IOException {
+        List<String> terms = new ArrayList<String>();
+        List<Integer> positionIncrements = new ArrayList<Integer>();
+        TokenStream stream = analyzer.tokenStream(field, new StringReader(text));
+        try {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionIncrementAttribute = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAttribute.toString());
+                positionIncrements.add(positionIncrementAttribute.getPositionIncrement());
+            }
+            stream.end();
+        } finally {
+            stream.close();
+        }
+
+        int[] increments = new int[positionIncrements.size()];
+        for (int i = 0; i < increments.length; i++) {
+            increments[i] = positionIncrements.get(i);
+        }
+        return new IndexTokens(terms.toArray(new String[terms.size()]), increments);
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public String getTerm(int i) {
+        return terms[i];
+    }
+
+    public int getPositionIncrement(int i) {
+        return positionIncrements[i];
+    }
+
+    /**
+     * Return a token stream replaying the terms, to index in place of the output of the analyzer
+     */
+    public TokenStream tokenStream() {
+        return new PreAnalyzedTokenStream();
+    }
+
+    private class PreAnalyzedTokenStream extends TokenStream {
+        private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+        private final PositionIncrementAttribute positionIncrementAttribute = addAttribute(PositionIncrementAttribute.class);
+        private int next = 0;
+
+        @Override
+        public boolean incrementToken() {
+            if (next >= terms.length) {
+                return false;
+            }
+            clearAttributes();
+            termAttribute.setEmpty().append(terms[next]);
+            positionIncrementAttribute.setPositionIncrement(positionIncrements[next]);
+            next++;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            next = 0;
+        }
+    }
+}
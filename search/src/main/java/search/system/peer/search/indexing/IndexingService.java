@@ -1,18 +1,18 @@
 package search.system.peer.search.indexing;
 
+import common.configuration.SearchConfiguration;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
@@ -20,8 +20,19 @@ import org.slf4j.LoggerFactory;
 import search.simulator.snapshot.Snapshot;
 import search.system.peer.search.Search;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 
 /**
@@ -30,131 +41,609 @@ import java.util.logging.Level;
  */
 public class IndexingService {
     private static final Logger logger = LoggerFactory.getLogger(IndexingService.class);
+
+    // Stored fields of an index entry
+    public static final String FIELD_INDEX = "index";
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_VALUE = "id";
+
     // Lucene setup
     StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
-    Directory index = new RAMDirectory();
-    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_42, analyzer);
 
-    // The highest index in the local lucene database
+    // The local index is split on index id into one or more partitions. Queries run on all partitions in parallel
+    private IndexPartition[] partitions;
+
+    // True if the partitions are stored on disk, and commits are needed for the index to survive a restart
+    private boolean persistent;
+
+    // Needed to create the partition directories of snapshots that are installed
+    private SearchConfiguration configuration;
+    private BigInteger peerId;
+
+    // The directory under the peer's data path holding the partitions, or null if they are right under it
+    // Every installed snapshot gets a new one, named in the LAYOUT_FILE so that a restarted peer finds it
+    private String layout = null;
+    private static final String LAYOUT_FILE = "layout";
+
+    // All held entries in id order. Serves index exchanges, while lucene serves queries
+    private IndexEntryLog entryLog = new IndexEntryLog();
+
+    // One bit per index id, set if the entry is held. Received entries are checked against it before anything else
+    private BitSet heldIds = new BitSet();
+
+    // Runs the partition searches of queries. Shared by all peers in the JVM, so that simulating
+    // hundreds of peers doesn't create hundreds of thread pools
+    private static ExecutorService partitionSearchExecutor = null;
+
+    // Recently parsed queries, sharing one query parser. "title" is the default field when none is given in the query
+    private static final int PARSED_QUERY_CACHE_MAX_ENTRIES = 256;
+    private ParsedQueryCache parsedQueryCache = new ParsedQueryCache(PARSED_QUERY_CACHE_MAX_ENTRIES, FIELD_TITLE, analyzer);
+
+    // Results of recent queries. Invalidated whenever the index generation changes
+    private static final int QUERY_CACHE_MAX_ENTRIES = 256;
+    private static final long QUERY_CACHE_MAX_BYTES = 1024 * 1024;
+    private QueryResultCache queryResultCache = new QueryResultCache(QUERY_CACHE_MAX_ENTRIES, QUERY_CACHE_MAX_BYTES);
+
+    // The most hits a query may rank, offset included. Each partition collects this many hits at worst
+    public static final int MAX_QUERY_HITS = 10000;
+
+    // The highest index in the local lucene database. Entries below it may still be missing
     private int maxLuceneIndex = 0;
 
-    public IndexingService() {
-        // An in memory lucene index must be initialized before it can be searched
+    // The highest index id with every id up to it held. Entries above it may arrive out of order, through pushes
+    // or pulls of disjoint ranges, so pulls continue from here rather than from maxLuceneIndex
+    private int contiguousIndex = 0;
+
+    // Incremented on every write to the index
+    private long indexGeneration = 0;
+
+    /**
+     * Open the local index of the peer. An index stored on disk resumes from its last committed maxLuceneIndex
+     */
+    public IndexingService(SearchConfiguration configuration, BigInteger peerId) {
+        partitions = new IndexPartition[Math.max(1, configuration.getIndexPartitions())];
+        persistent = SearchConfiguration.STORAGE_MMAP.equals(configuration.getIndexStorage());
+        this.configuration = configuration;
+        this.peerId = peerId;
         try {
-            IndexWriter w = new IndexWriter(index, config);
-            w.commit();
-            w.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            layout = readLayout();
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i] = new IndexPartition(createDirectory(layout, i), analyzer);
+                maxLuceneIndex = Math.max(maxLuceneIndex, partitions[i].getCommittedMaxLuceneIndex());
+            }
+            if (maxLuceneIndex > 0) {
+                rebuildEntryLog();
+            }
+        } catch (IOException ex) {
+            java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(-1);
         }
     }
 
+    /**
+     * Create the directory of a partition: on the heap, or memory-mapped files under a per-peer data path
+     */
+    private Directory createDirectory(String layout, int partition) throws IOException {
+        if (persistent) {
+            return new MMapDirectory(new File(getLayoutPath(layout), "partition-" + partition));
+        }
+        return new RAMDirectory();
+    }
+
+    private File getLayoutPath(String layout) {
+        File peerPath = new File(configuration.getIndexDataPath(), "peer-" + peerId);
+        return layout == null ? peerPath : new File(peerPath, layout);
+    }
+
+    /**
+     * Return the layout named in the peer's LAYOUT_FILE, or null if no snapshot was ever installed
+     */
+    private String readLayout() throws IOException {
+        File layoutFile = new File(getLayoutPath(null), LAYOUT_FILE);
+        if (!persistent || !layoutFile.exists()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(layoutFile));
+        try {
+            return reader.readLine().trim();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Point the peer's LAYOUT_FILE at a new layout. The file is replaced by a rename, so it is never seen half written
+     */
+    private void writeLayout(String newLayout) throws IOException {
+        File layoutFile = new File(getLayoutPath(null), LAYOUT_FILE);
+        File tmpFile = new File(getLayoutPath(null), LAYOUT_FILE + ".tmp");
+        FileWriter writer = new FileWriter(tmpFile);
+        try {
+            writer.write(newLayout);
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(layoutFile)) {
+            throw new IOException("Could not replace " + layoutFile);
+        }
+    }
+
+    /**
+     * Delete the partition directories of a layout, and the layout directory itself if that leaves it empty
+     */
+    static void deleteLayout(File path) {
+        File[] partitionPaths = path.listFiles();
+        if (partitionPaths == null) {
+            return;
+        }
+        for (File partitionPath : partitionPaths) {
+            if (!partitionPath.getName().startsWith("partition-")) {
+                continue;
+            }
+            File[] files = partitionPath.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            partitionPath.delete();
+        }
+        path.delete();
+    }
+
     public int getMaxLuceneIndex() {
         return maxLuceneIndex;
     }
 
     /**
-     * Add the documents to the lucene index
+     * Return the highest index id such that all entries up to it are held
+     */
+    public int getContiguousIndex() {
+        return contiguousIndex;
+    }
+
+    /**
+     * Return the index generation, which changes every time entries are added
      */
-    public void addDocuments(List<Document> documents) throws IOException {
-        IndexWriter w = new IndexWriter(index, config);
-        for (Document doc : documents) {
-            w.addDocument(doc);
-            int docIndex = Integer.parseInt(doc.getField("index").stringValue());
-            if (docIndex > maxLuceneIndex) {
-                maxLuceneIndex = docIndex;
+    public long getIndexGeneration() {
+        return indexGeneration;
+    }
+
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    /**
+     * Add entries received from other peers to the entry log and the lucene index
+     * Entries that are already held, for example because two exchanges overlapped, are dropped before reaching lucene.
+     * Returns the entries that were added
+     */
+    public List<IndexEntry> addEntries(List<IndexEntry> entries) throws IOException {
+        List<List<Document>> partitioned = createPartitionedLists();
+        List<IndexEntry> added = new ArrayList<IndexEntry>(entries.size());
+        int preAnalyzed = 0;
+        for (IndexEntry entry : entries) {
+            if (heldIds.get(entry.getIndexId())) {
+                Snapshot.duplicateIndexEntryDropped();
+                continue;
+            }
+            holdEntry(entry);
+            added.add(entry);
+            if (entry.getTokens() != null) {
+                preAnalyzed++;
             }
+            partitioned.get(getPartition(entry.getIndexId())).add(createDocument(entry));
+            if (entry.getIndexId() > maxLuceneIndex) {
+                maxLuceneIndex = entry.getIndexId();
+            }
+        }
+        addPartitionedDocuments(partitioned);
+        if (!added.isEmpty()) {
+            Snapshot.receivedIndexEntriesIndexed(added.size(), preAnalyzed);
+        }
+        return added;
+    }
+
+    private void holdEntry(IndexEntry entry) {
+        heldIds.set(entry.getIndexId());
+        entryLog.append(entry);
+        while (heldIds.get(contiguousIndex + 1)) {
+            contiguousIndex++;
         }
-        w.close();
     }
 
     /**
-     * Add a new entry to the lucene index
+     * Add a batch of new entries, with consecutive ids assigned by the leader, to the lucene index in one operation
+     * If pre-analysis is on, the keys are analyzed here, and the entries returned carry the tokens to propagate
      */
-    public void addNewEntry(int indexID, String key, String value) throws IOException {
-        maxLuceneIndex = indexID;
+    public List<IndexEntry> addNewEntries(List<IndexEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return entries;
+        }
+        if (configuration.isIndexPreAnalyzed()) {
+            List<IndexEntry> analyzed = new ArrayList<IndexEntry>(entries.size());
+            for (IndexEntry entry : entries) {
+                analyzed.add(new IndexEntry(entry.getIndexId(), entry.getKey(), entry.getValue(),
+                        IndexTokens.analyze(analyzer, FIELD_TITLE, entry.getKey())));
+            }
+            entries = analyzed;
+        }
+
+        List<List<Document>> partitioned = createPartitionedLists();
+        for (IndexEntry entry : entries) {
+            holdEntry(entry);
+            partitioned.get(getPartition(entry.getIndexId())).add(createDocument(entry));
+        }
+        maxLuceneIndex = entries.get(entries.size() - 1).getIndexId();
+        addPartitionedDocuments(partitioned);
+
         Snapshot.updateMaxLeaderIndex(maxLuceneIndex);
         Snapshot.addIndexEntryAtLeader();
-        IndexWriter w = new IndexWriter(index, config);
+        return entries;
+    }
+
+    /**
+     * Create the lucene document for an index entry. The index id is a numeric field so it can be range queried
+     * A pre-analyzed title is indexed from its tokens, and stored in a separate field, so the analyzer doesn't run
+     */
+    private Document createDocument(IndexEntry entry) {
         Document doc = new Document();
-        doc.add(new TextField("title", key, Field.Store.YES));
-        doc.add(new StringField("id", value, Field.Store.YES));
-        doc.add(new StringField("index", String.format("%05d", maxLuceneIndex), Field.Store.YES));
-        w.addDocument(doc);
-        w.close();
+        if (entry.getTokens() == null) {
+            doc.add(new TextField(FIELD_TITLE, entry.getKey(), Field.Store.YES));
+        } else {
+            doc.add(new TextField(FIELD_TITLE, entry.getTokens().tokenStream()));
+            doc.add(new StoredField(FIELD_TITLE, entry.getKey()));
+        }
+        doc.add(new StringField(FIELD_VALUE, entry.getValue(), Field.Store.YES));
+        doc.add(new IntField(FIELD_INDEX, entry.getIndexId(), Field.Store.YES));
+        return doc;
+    }
+
+    /**
+     * Return the index id of a document
+     */
+    public static int getIndexId(Document doc) {
+        return doc.getField(FIELD_INDEX).numericValue().intValue();
+    }
+
+    /**
+     * Return the partition holding the entry with the given index id
+     * Consecutive ids are spread over all partitions, so that new entries don't all land in the same one
+     */
+    private int getPartition(int indexID) {
+        return indexID % partitions.length;
+    }
+
+    private List<List<Document>> createPartitionedLists() {
+        List<List<Document>> partitioned = new ArrayList<List<Document>>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            partitioned.add(new ArrayList<Document>());
+        }
+        return partitioned;
+    }
+
+    private void addPartitionedDocuments(List<List<Document>> partitioned) throws IOException {
+        boolean added = false;
+        for (int i = 0; i < partitions.length; i++) {
+            if (!partitioned.get(i).isEmpty()) {
+                partitions[i].addDocuments(partitioned.get(i));
+                added = true;
+            }
+        }
+        if (added) {
+            indexGeneration++;
+            if (persistent) {
+                commit();
+            }
+        }
     }
 
     /**
-     * Return a list of all lucene documents with an index higher than sinceIndex
+     * Refill the entry log from the documents of a reopened index
+     * Tokens aren't stored in lucene, so the rebuilt entries aren't pre-analyzed, and receivers analyze them again
      */
-    public List<Document> getDocumentsSinceIndex(int sinceIndex) {
-        List<Document> documents = new LinkedList<Document>();
+    private void rebuildEntryLog() throws IOException {
+        for (IndexPartition partition : partitions) {
+            IndexSearcher searcher = partition.acquireSearcher();
+            try {
+                for (int docId = 0; docId < searcher.getIndexReader().maxDoc(); docId++) {
+                    Document d = searcher.doc(docId);
+                    holdEntry(new IndexEntry(getIndexId(d), d.get(FIELD_TITLE), d.get(FIELD_VALUE)));
+                }
+            } finally {
+                partition.releaseSearcher(searcher);
+            }
+        }
+    }
 
-        String queryString = "index:[" + String.format("%05d", sinceIndex) + " TO 99999]";
-        Query q = null;
+    /**
+     * Create a point-in-time snapshot of the files of all partitions, to be read in chunks of at most chunkBytes
+     * Committing first makes it include all entries held. The commits are held until releaseSnapshot() is called
+     */
+    public IndexSnapshot createSnapshot(int chunkBytes) throws IOException {
+        String id = UUID.randomUUID().toString();
+        List<IndexSnapshotFile> files = new ArrayList<IndexSnapshotFile>();
+        int chunkCount = 0;
+        int held = 0;
         try {
-            q = new QueryParser(Version.LUCENE_42, "title", analyzer).parse(queryString);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-        IndexSearcher searcher;
-        IndexReader reader;
-        TopDocs results;
-        ScoreDoc[] hits;
+            for (; held < partitions.length; held++) {
+                for (Map.Entry<String, Long> file : partitions[held].snapshot(maxLuceneIndex, id).entrySet()) {
+                    files.add(new IndexSnapshotFile(held, file.getKey(), file.getValue(), chunkCount));
+                    chunkCount += IndexSnapshot.getChunks(file.getValue(), chunkBytes);
+                }
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < held; i++) {
+                partitions[i].releaseSnapshot(id);
+            }
+            throw e;
+        }
+        return new IndexSnapshot(id, maxLuceneIndex, partitions.length, files, chunkBytes, chunkCount);
+    }
+
+    /**
+     * Read one chunk of a snapshot's files
+     */
+    public byte[] readSnapshotChunk(IndexSnapshot snapshot, int chunk) throws IOException {
+        IndexSnapshotFile file = snapshot.getChunkFile(chunk);
+        long offset = (long) (chunk - file.getFirstChunk()) * snapshot.getChunkBytes();
+        int length = (int) Math.min(snapshot.getChunkBytes(), file.getLength() - offset);
+        return partitions[file.getPartition()].readFile(file.getName(), offset, length);
+    }
+
+    /**
+     * Let the partitions delete the files of a snapshot's commit once they are no longer part of the index
+     */
+    public void releaseSnapshot(IndexSnapshot snapshot) throws IOException {
+        for (IndexPartition partition : partitions) {
+            partition.releaseSnapshot(snapshot.getId());
+        }
+    }
+
+    /**
+     * Create new, empty partition directories to receive a snapshot of another peer's index into
+     * On disk, they go in a new layout directory next to the current one
+     */
+    public StagedIndexSnapshot stageSnapshot(int snapshotMaxLuceneIndex) throws IOException {
+        String stagedLayout = null;
+        File stagedPath = null;
+        if (persistent) {
+            int n = 1;
+            while (getLayoutPath("snapshot-" + n).exists()) {
+                n++;
+            }
+            stagedLayout = "snapshot-" + n;
+            stagedPath = getLayoutPath(stagedLayout);
+        }
+        Directory[] directories = new Directory[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            directories[i] = createDirectory(stagedLayout, i);
+        }
+        return new StagedIndexSnapshot(snapshotMaxLuceneIndex, stagedLayout, stagedPath, directories);
+    }
+
+    /**
+     * Replace the empty local index with a staged snapshot of another peer's index, without reindexing the entries
+     * An index holding only entries pushed to it, without the first entry, counts as empty. Those entries are
+     * replaced too, and pulled again if the snapshot doesn't have them
+     * The snapshot's partitions are opened and read before the current ones are closed. Returns false, or throws if
+     * the snapshot can't be opened, and leaves the current index as it was. The staged snapshot is then discarded
+     */
+    public boolean installSnapshot(StagedIndexSnapshot staged) throws IOException {
+        if (contiguousIndex != 0 || staged.getPartitions() != partitions.length) {
+            staged.discard();
+            return false;
+        }
+
+        IndexPartition[] installed = new IndexPartition[partitions.length];
+        IndexPartition[] replaced = partitions;
+        IndexEntryLog replacedEntryLog = entryLog;
+        BitSet replacedHeldIds = heldIds;
+        int replacedMaxLuceneIndex = maxLuceneIndex;
         try {
-            reader = DirectoryReader.open(index);
-            searcher = new IndexSearcher(reader);
-            results = searcher.search(q, 65536);
-            hits = results.scoreDocs;
+            staged.finish();
+            for (int i = 0; i < installed.length; i++) {
+                installed[i] = new IndexPartition(staged.getDirectory(i), analyzer, IndexWriterConfig.OpenMode.APPEND);
+            }
+            partitions = installed;
+            maxLuceneIndex = staged.getMaxLuceneIndex();
+            entryLog = new IndexEntryLog();
+            heldIds = new BitSet();
+            contiguousIndex = 0;
+            rebuildEntryLog();
+            if (persistent) {
+                writeLayout(staged.getLayout());
+            }
+        } catch (IOException e) {
+            partitions = replaced;
+            entryLog = replacedEntryLog;
+            heldIds = replacedHeldIds;
+            maxLuceneIndex = replacedMaxLuceneIndex;
+            contiguousIndex = 0;
+            try {
+                for (IndexPartition partition : installed) {
+                    if (partition != null) {
+                        partition.close();
+                    }
+                }
+                staged.discard();
+            } catch (IOException discardException) {
+                discardException.printStackTrace();
+            }
+            throw e;
+        }
+        indexGeneration++;
 
-            for(int i=0;i<hits.length;++i) {
-                int docId = hits[i].doc;
-                Document d = searcher.doc(docId);
-                documents.add(d);
+        // The snapshot is in place. Failing to clean up the replaced partitions only leaves unused files behind
+        for (IndexPartition partition : replaced) {
+            try {
+                partition.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } catch (IOException ex) {
-            java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
-            System.exit(-1);
         }
+        if (persistent) {
+            deleteLayout(getLayoutPath(layout));
+        }
+        layout = staged.getLayout();
+        return true;
+    }
 
-        return documents;
+    /**
+     * Commit all partitions, so that a restarted peer can resume from the current maxLuceneIndex
+     */
+    private void commit() throws IOException {
+        for (IndexPartition partition : partitions) {
+            partition.commit(maxLuceneIndex);
+        }
     }
 
     /**
-     * Query the index for a given string. Return the result as a HTML-table
+     * Commit and close all partitions. The index can't be used afterwards
      */
-    public String query(String queryString) throws ParseException, IOException {
-        // the "title" arg specifies the default field to use when no field is explicitly specified in the query.
-        Query q = new QueryParser(Version.LUCENE_42, "title", analyzer).parse(queryString);
-        IndexSearcher searcher = null;
-        IndexReader reader = null;
+    public void close() throws IOException {
+        if (persistent) {
+            commit();
+        }
+        for (IndexPartition partition : partitions) {
+            partition.close();
+        }
+    }
+
+    /**
+     * Acquire a searcher for every partition, seeing all documents added so far. Must be given back with releaseSearchers()
+     */
+    private IndexSearcher[] acquireSearchers() throws IOException {
+        IndexSearcher[] searchers = new IndexSearcher[partitions.length];
         try {
-            reader = DirectoryReader.open(index);
-            searcher = new IndexSearcher(reader);
+            for (int i = 0; i < partitions.length; i++) {
+                searchers[i] = partitions[i].acquireSearcher();
+            }
         } catch (IOException ex) {
-            java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
-            System.exit(-1);
+            releaseSearchers(searchers);
+            throw ex;
+        }
+        return searchers;
+    }
+
+    private void releaseSearchers(IndexSearcher[] searchers) {
+        for (int i = 0; i < partitions.length; i++) {
+            if (searchers[i] != null) {
+                try {
+                    partitions[i].releaseSearcher(searchers[i]);
+                } catch (IOException ex) {
+                    java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the top n hits of the query in each partition. With more than one partition, the partitions are searched in parallel
+     */
+    private TopDocs[] searchPartitions(final Query q, final int n, final IndexSearcher[] searchers) throws IOException {
+        TopDocs[] partitionHits = new TopDocs[searchers.length];
+        if (searchers.length == 1) {
+            partitionHits[0] = searchers[0].search(q, n);
+            return partitionHits;
+        }
+
+        List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(searchers.length);
+        for (final IndexSearcher searcher : searchers) {
+            futures.add(getPartitionSearchExecutor().submit(new Callable<TopDocs>() {
+                public TopDocs call() throws IOException {
+                    return searcher.search(q, n);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < searchers.length; i++) {
+                partitionHits[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
         }
+        return partitionHits;
+    }
+
+    private static synchronized ExecutorService getPartitionSearchExecutor() {
+        if (partitionSearchExecutor == null) {
+            partitionSearchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "partition-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return partitionSearchExecutor;
+    }
+
+    /**
+     * Return all held entries with an index id in (afterIndex, lastIndex]
+     */
+    public List<IndexEntry> getEntries(int afterIndex, int lastIndex) {
+        return entryLog.getEntries(afterIndex, lastIndex);
+    }
 
-        int hitsPerPage = 10;
-        TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
-        searcher.search(q, collector);
-        ScoreDoc[] hits = collector.topDocs().scoreDocs;
+    /**
+     * Return a digest of the index ids held in (afterIndex, lastIndex]. See IndexEntryLog.getRangeDigest()
+     */
+    public long getRangeDigest(int afterIndex, int lastIndex) {
+        return entryLog.getRangeDigest(afterIndex, lastIndex);
+    }
 
-        StringBuilder sb = new StringBuilder();
-        // display results
-        sb.append("<div>Found ").append(hits.length).append(" entries.</div>");
-        sb.append("<table><tr><td>index</td><td>title</td><td>value</td>");
-        for (int i = 0; i < hits.length; ++i) {
-            int docId = hits[i].doc;
-            Document d = searcher.doc(docId);
-            sb.append("<tr><td>").append(d.get("index")).append("</td><td>").append(d.get("title")).append("</td><td>").append(d.get("id")).append("</td></tr>");
+    /**
+     * Return true if the hits ranked offset to offset + limit can be queried for. See MAX_QUERY_HITS
+     */
+    public static boolean isValidPage(int offset, int limit) {
+        // Compared without adding, so that large values can't overflow
+        return offset >= 0 && limit > 0 && limit <= MAX_QUERY_HITS && offset <= MAX_QUERY_HITS - limit;
+    }
+
+    /**
+     * Query the index for a given string. Return the hits ranked offset to offset + limit
+     * Only the stored fields named in fields (FIELD_INDEX, FIELD_TITLE, FIELD_VALUE) are loaded. null loads all of them
+     * Throws IllegalArgumentException if offset and limit aren't a valid page
+     */
+    public SearchResult query(String queryString, int offset, int limit, Set<String> fields) throws ParseException, IOException {
+        if (!isValidPage(offset, limit)) {
+            throw new IllegalArgumentException("Invalid offset " + offset + " or limit " + limit);
+        }
+        queryString = ParsedQueryCache.normalize(queryString);
+        SearchResult cached = queryResultCache.get(indexGeneration, queryString, offset, limit, fields);
+        if (cached != null) {
+            return cached;
         }
-        sb.append("</table>");
 
-        // reader can only be closed when there
-        // is no need to access the documents any more.
-        reader.close();
-        return sb.toString();
+        Query q = parsedQueryCache.parse(queryString);
+        IndexSearcher[] searchers = acquireSearchers();
+        try {
+            // Merge the top offset + limit hits of every partition, and keep the ones ranked from offset
+            TopDocs merged = TopDocs.merge(null, offset + limit, searchPartitions(q, offset + limit, searchers));
+            ScoreDoc[] hits = merged.scoreDocs;
+
+            List<SearchHit> results = new ArrayList<SearchHit>(Math.max(0, hits.length - offset));
+            for (int i = offset; i < hits.length; ++i) {
+                IndexSearcher searcher = searchers[hits[i].shardIndex];
+                int docId = hits[i].doc;
+                if (fields != null && fields.isEmpty()) {
+                    results.add(new SearchHit(-1, null, null, hits[i].score));
+                    continue;
+                }
+                Document d = fields == null ? searcher.doc(docId) : searcher.doc(docId, fields);
+                int indexId = d.getField(FIELD_INDEX) == null ? -1 : getIndexId(d);
+                results.add(new SearchHit(indexId, d.get(FIELD_TITLE), d.get(FIELD_VALUE), hits[i].score));
+            }
+            SearchResult result = new SearchResult(merged.totalHits, offset, Collections.unmodifiableList(results));
+            queryResultCache.put(queryString, offset, limit, fields, result);
+            return result;
+        } finally {
+            // the searchers can only be released when there
+            // is no need to access the documents any more.
+            releaseSearchers(searchers);
+        }
     }
 }
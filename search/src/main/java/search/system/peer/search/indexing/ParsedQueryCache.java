@@ -0,0 +1,81 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Version;
+import search.simulator.snapshot.Snapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses query strings into lucene queries, reusing one parser and remembering the most recently parsed queries
+ * Parsed queries are never modified by searching, so a cached query can be run any number of times
+ */
+public class ParsedQueryCache {
+    private final int maxEntries;
+    private final QueryParser parser;
+
+    // Access ordered, the least recently used query is evicted first
+    private final LinkedHashMap<String, Query> queries;
+
+    public ParsedQueryCache(int maxEntries, String defaultField, Analyzer analyzer) {
+        this.maxEntries = maxEntries;
+        this.parser = new QueryParser(Version.LUCENE_42, defaultField, analyzer);
+        this.queries = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > ParsedQueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the query for a normalized query string, parsing it only if it isn't cached
+     */
+    public Query parse(String normalizedQueryString) throws ParseException {
+        Query query = queries.get(normalizedQueryString);
+        if (query != null) {
+            Snapshot.parsedQueryCacheHit();
+            return query;
+        }
+
+        query = parser.parse(normalizedQueryString);
+
+        queries.put(normalizedQueryString, query);
+        return query;
+    }
+
+    /**
+     * Trim and collapse whitespace between terms, so that trivially different query strings share one cache entry
+     * Quoted phrases, regexps and escaped characters are copied verbatim, since whitespace inside them is part of
+     * what is searched for
+     */
+    public static String normalize(String queryString) {
+        StringBuilder normalized = new StringBuilder(queryString.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < queryString.length(); i++) {
+            char c = queryString.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+            if (c == '\\' && i + 1 < queryString.length()) {
+                normalized.append(queryString.charAt(++i));
+            } else if (quote == 0 && (c == '"' || c == '/')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package search.system.peer.search.indexing;
+
+import search.simulator.snapshot.Snapshot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * LRU cache of query results, bounded both by number of entries and by their estimated size in memory
+ * All cached results belong to one index generation. They are dropped as soon as a lookup is made for a newer one
+ */
+public class QueryResultCache {
+    // Rough per-object overheads used when estimating the memory held by a cached result
+    private static final int RESULT_OVERHEAD_BYTES = 64;
+    private static final int HIT_OVERHEAD_BYTES = 48;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Access ordered, so iteration starts at the least recently used result
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    private long generation = 0;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+
+    public QueryResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the cached result of a query against the given index generation, or null if there is none
+     */
+    public SearchResult get(long indexGeneration, String queryString, int offset, int limit, Set<String> fields) {
+        if (indexGeneration != generation) {
+            results.clear();
+            cachedBytes = 0;
+            generation = indexGeneration;
+        }
+
+        CachedResult cached = results.get(createKey(queryString, offset, limit, fields));
+        if (cached == null) {
+            misses++;
+            Snapshot.queryResultCacheMiss();
+            return null;
+        }
+        hits++;
+        Snapshot.queryResultCacheHit();
+        return cached.result;
+    }
+
+    /**
+     * Cache the result of a query against the current index generation, evicting the least recently used results if needed
+     */
+    public void put(String queryString, int offset, int limit, Set<String> fields, SearchResult result) {
+        String key = createKey(queryString, offset, limit, fields);
+        long bytes = estimateBytes(key, result);
+        if (bytes > maxBytes) {
+            return;
+        }
+
+        CachedResult previous = results.put(key, new CachedResult(result, bytes));
+        if (previous != null) {
+            cachedBytes -= previous.bytes;
+        }
+        cachedBytes += bytes;
+
+        Iterator<Map.Entry<String, CachedResult>> it = results.entrySet().iterator();
+        while ((results.size() > maxEntries || cachedBytes > maxBytes) && it.hasNext()) {
+            cachedBytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+            Snapshot.queryResultCacheEviction();
+        }
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public int getEvictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    private static String createKey(String queryString, int offset, int limit, Set<String> fields) {
+        StringBuilder sb = new StringBuilder(queryString);
+        sb.append('\u0000').append(offset).append('\u0000').append(limit).append('\u0000');
+        if (fields == null) {
+            sb.append('*');
+        } else {
+            for (String field : new TreeSet<String>(fields)) {
+                sb.append(field).append(',');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long estimateBytes(String key, SearchResult result) {
+        long bytes = RESULT_OVERHEAD_BYTES + 2L * key.length();
+        for (SearchHit hit : result.getHits()) {
+            bytes += HIT_OVERHEAD_BYTES;
+            bytes += hit.getTitle() == null ? 0 : 2L * hit.getTitle().length();
+            bytes += hit.getValue() == null ? 0 : 2L * hit.getValue().length();
+        }
+        return bytes;
+    }
+
+    private static class CachedResult {
+        final SearchResult result;
+        final long bytes;
+
+        CachedResult(SearchResult result, long bytes) {
+            this.result = result;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package search.system.peer.search.indexing;
+
+/**
+ * A single hit of a query against the local index
+ * Fields that were not requested in the query's projection are left unset (-1 for the index id, null otherwise)
+ */
+public class SearchHit {
+    private final int indexId;
+    private final String title;
+    private final String value;
+    private final float score;
+
+    public SearchHit(int indexId, String title, String value, float score) {
+        this.indexId = indexId;
+        this.title = title;
+        this.value = value;
+        this.score = score;
+    }
+
+    public int getIndexId() {
+        return indexId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public float getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,30 @@
+package search.system.peer.search.indexing;
+
+import java.util.List;
+
+/**
+ * A page of hits of a query against the local index, together with the total number of matching entries
+ */
+public class SearchResult {
+    private final int totalHits;
+    private final int offset;
+    private final List<SearchHit> hits;
+
+    public SearchResult(int totalHits, int offset, List<SearchHit> hits) {
+        this.totalHits = totalHits;
+        this.offset = offset;
+        this.hits = hits;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public List<SearchHit> getHits() {
+        return hits;
+    }
+}
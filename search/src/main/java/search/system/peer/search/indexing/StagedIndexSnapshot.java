@@ -0,0 +1,96 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The files of a snapshot of another peer's index, written into new partition directories as they arrive
+ * The local index isn't touched until the staged snapshot is installed with IndexingService.installSnapshot
+ */
+public class StagedIndexSnapshot {
+    private final int maxLuceneIndex;
+
+    // The directory under the peer's data path holding the new partitions, or null if they are in memory
+    private final String layout;
+    private final File path;
+    private final Directory[] directories;
+
+    // The file being written. Files are written one at a time, from start to end
+    private IndexOutput output = null;
+    private int outputPartition;
+    private String outputName;
+
+    StagedIndexSnapshot(int maxLuceneIndex, String layout, File path, Directory[] directories) {
+        this.maxLuceneIndex = maxLuceneIndex;
+        this.layout = layout;
+        this.path = path;
+        this.directories = directories;
+    }
+
+    public int getMaxLuceneIndex() {
+        return maxLuceneIndex;
+    }
+
+    public int getPartitions() {
+        return directories.length;
+    }
+
+    String getLayout() {
+        return layout;
+    }
+
+    Directory getDirectory(int partition) {
+        return directories[partition];
+    }
+
+    /**
+     * Append bytes to a file of a partition, creating the file when the first bytes of it are written
+     */
+    public void write(int partition, String name, byte[] bytes, int length) throws IOException {
+        if (output == null || partition != outputPartition || !name.equals(outputName)) {
+            closeOutput();
+            output = directories[partition].createOutput(name, IOContext.DEFAULT);
+            outputPartition = partition;
+            outputName = name;
+        }
+        output.writeBytes(bytes, length);
+    }
+
+    /**
+     * Finish the last file, and make all files durable before they are opened as partitions
+     */
+    void finish() throws IOException {
+        closeOutput();
+        for (Directory directory : directories) {
+            directory.sync(Arrays.asList(directory.listAll()));
+        }
+    }
+
+    /**
+     * Delete everything written so far
+     */
+    public void discard() throws IOException {
+        closeOutput();
+        for (Directory directory : directories) {
+            for (String name : directory.listAll()) {
+                directory.deleteFile(name);
+            }
+            directory.close();
+        }
+        if (path != null) {
+            IndexingService.deleteLayout(path);
+        }
+    }
+
+    private void closeOutput() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+}
@@ -15,8 +15,13 @@ public class IndexNextIdService {
     public IndexNextIdService() {
     }
 
-    public int getIncrementedId() {
-        return ++nextId;
+    /**
+     * Reserve count consecutive ids, and return the first of them
+     */
+    public int getIncrementedIds(int count) {
+        int firstId = nextId + 1;
+        nextId += count;
+        return firstId;
     }
 
     public int getNextId() {
@@ -111,6 +111,13 @@ public class LeaderElectionService {
         return isLeader;
     }
 
+    /**
+     * Return the current leader, as last announced to us, or null if we don't know it
+     */
+    public PeerAddress getLeader() {
+        return leader;
+    }
+
     public List<PeerAddress> getTManPartners() {
         return tmanPartners;
     }
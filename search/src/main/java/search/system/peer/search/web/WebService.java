@@ -13,6 +13,9 @@ import se.sics.kompics.web.Web;
 import se.sics.kompics.web.WebRequest;
 import se.sics.kompics.web.WebResponse;
 import search.system.peer.search.indexing.IndexingService;
+import search.system.peer.search.indexing.QueryResultCache;
+import search.system.peer.search.indexing.SearchHit;
+import search.system.peer.search.indexing.SearchResult;
 import search.system.peer.search.Search;
 import search.system.peer.search.indexadd.IndexAddService;
 
@@ -27,7 +30,7 @@ import java.util.logging.Level;
  * Accept add entry, search and inspect requests
  * API:
  *   Search:
- *     /<nodeid>/search/query=<search query>
+ *     /<nodeid>/search/query=<search query>[&offset=<first hit>][&limit=<number of hits>]
  *   Add:
  *     /<nodeid>/add/key=<key>&value=<value>
  *   Inspect:
@@ -84,17 +87,22 @@ public class WebService {
                 response = WebHelpers.createBadRequestResponse(event, "Invalid command!: " + command);
             } else {
                 if (command.equals(INSPECT_OVERLAY_COMMAND)) {
-                    response = WebHelpers.createDefaultRenderedResponse(event, "Overlay drawn!", "By node " + self.getPeerId());
+                    QueryResultCache cache = indexingService.getQueryResultCache();
+                    response = WebHelpers.createDefaultRenderedResponse(event, "Overlay drawn!", "By node " + self.getPeerId()
+                            + "<br />Query cache: " + cache.size() + " results, " + cache.getHits() + " hits, "
+                            + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
                     ScheduleTimeout rst = new ScheduleTimeout(1);
                     rst.setTimeoutEvent(new InspectTrigger(rst));
                     triggerDependency.trigger(rst, timerPort);
 
                 } else if (command.equals(SEARCH_COMMAND)) {
                     String queryString = WebHelpers.getParamOrDefault(jettyRequest, "query", null);
-                    if (queryString != null) {
+                    int offset = WebHelpers.getIntParamOrDefault(jettyRequest, "offset", 0);
+                    int limit = WebHelpers.getIntParamOrDefault(jettyRequest, "limit", 10);
+                    if (queryString != null && IndexingService.isValidPage(offset, limit)) {
                         String queryResult = null;
                         try {
-                            queryResult = indexingService.query(queryString);
+                            queryResult = WebHelpers.createSearchResultHtml(indexingService.query(queryString, offset, limit, null));
                         } catch (IOException e) {
                             java.util.logging.Logger.getLogger(Search.class.getName()).log(Level.SEVERE, null, e);
                         } catch (ParseException e) {
@@ -107,7 +115,8 @@ public class WebService {
                             response = WebHelpers.createErrorResponse(event, "Failure searching for " + queryString + "!<br />");
                         }
                     } else {
-                        response = WebHelpers.createBadRequestResponse(event, "Invalid query value");
+                        response = WebHelpers.createBadRequestResponse(event, "Invalid query, offset or limit value. At most "
+                                + IndexingService.MAX_QUERY_HITS + " hits can be ranked");
                     }
 
                 } else if (command.equals(ADD_COMMAND)) {
@@ -157,6 +166,32 @@ public class WebService {
                     defaultValue : jettyRequest.getParameter(param);
         }
 
+        public static int getIntParamOrDefault(org.mortbay.jetty.Request jettyRequest, String param, int defaultValue) {
+            String value = getParamOrDefault(jettyRequest, param, null);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Render the hits of a query as a HTML-table
+         */
+        public static String createSearchResultHtml(SearchResult result) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("<div>Found ").append(result.getTotalHits()).append(" entries.</div>");
+            sb.append("<table><tr><td>index</td><td>title</td><td>value</td>");
+            for (SearchHit hit : result.getHits()) {
+                sb.append("<tr><td>").append(hit.getIndexId()).append("</td><td>").append(hit.getTitle()).append("</td><td>").append(hit.getValue()).append("</td></tr>");
+            }
+            sb.append("</table>");
+            return sb.toString();
+        }
+
         public static WebResponse createErrorResponse(WebRequest event, String message) {
             Map<String, String> params = new HashMap<String, String>();
             params.put("title", "Error!");
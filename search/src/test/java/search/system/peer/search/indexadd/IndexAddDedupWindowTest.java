@@ -0,0 +1,66 @@
+package search.system.peer.search.indexadd;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class IndexAddDedupWindowTest {
+    @Test
+    public void acceptedAddIsPendingUntilAssigned() {
+        IndexAddDedupWindow window = new IndexAddDedupWindow(10, 1000);
+        UUID requestId = UUID.randomUUID();
+        assertFalse(window.contains(requestId, 0));
+
+        window.accept(requestId, 0);
+        assertTrue(window.contains(requestId, 10));
+        assertEquals(IndexAddDedupWindow.PENDING, window.getIndexId(requestId));
+
+        window.assign(requestId, 42);
+        assertEquals(42, window.getIndexId(requestId));
+    }
+
+    @Test
+    public void addsExpireOnceOlderThanTheTimeToLive() {
+        IndexAddDedupWindow window = new IndexAddDedupWindow(10, 1000);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        window.accept(first, 0);
+        window.accept(second, 600);
+
+        assertTrue(window.contains(first, 1000));
+        assertFalse(window.contains(first, 1001));
+        assertTrue(window.contains(second, 1001));
+        assertTrue(window.contains(second, 1600));
+        assertFalse(window.contains(second, 1601));
+    }
+
+    @Test
+    public void oldestAddIsEvictedWhenFull() {
+        IndexAddDedupWindow window = new IndexAddDedupWindow(2, 1000);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        window.accept(first, 0);
+        window.accept(second, 1);
+        window.accept(third, 2);
+
+        assertFalse(window.contains(first, 3));
+        assertTrue(window.contains(second, 3));
+        assertTrue(window.contains(third, 3));
+    }
+
+    @Test
+    public void forgottenAddIsNoLongerADuplicate() {
+        IndexAddDedupWindow window = new IndexAddDedupWindow(10, 1000);
+        UUID requestId = UUID.randomUUID();
+        window.accept(requestId, 0);
+        window.forget(requestId);
+        assertFalse(window.contains(requestId, 1));
+
+        // Assigning an index id to an add that isn't held is ignored
+        window.assign(requestId, 7);
+        assertFalse(window.contains(requestId, 1));
+    }
+}
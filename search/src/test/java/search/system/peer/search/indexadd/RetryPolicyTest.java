@@ -0,0 +1,52 @@
+package search.system.peer.search.indexadd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+    @Test
+    public void timeoutsGrowByTheMultiplierUpToTheCap() {
+        RetryPolicy policy = new RetryPolicy(2, 10000, 0, 6);
+        assertEquals(1000, policy.getTimeout(1000, 1));
+        assertEquals(2000, policy.getTimeout(1000, 2));
+        assertEquals(4000, policy.getTimeout(1000, 3));
+        assertEquals(8000, policy.getTimeout(1000, 4));
+        assertEquals(10000, policy.getTimeout(1000, 5));
+        assertEquals(10000, policy.getTimeout(1000, 50));
+    }
+
+    @Test
+    public void jitterStaysWithinItsFractionOfTheCappedTimeout() {
+        RetryPolicy policy = new RetryPolicy(2, 10000, 0.2, 6);
+        boolean spread = false;
+        for (int i = 0; i < 1000; i++) {
+            long timeout = policy.getTimeout(1000, 3);
+            assertTrue(timeout >= 3200 && timeout <= 4800);
+            long capped = policy.getTimeout(1000, 10);
+            assertTrue(capped >= 8000 && capped <= 12000);
+            spread |= timeout != 4000;
+        }
+        assertTrue(spread);
+    }
+
+    @Test
+    public void noAttemptTimesOutBeforeTheFirstAttemptsTimeout() {
+        RetryPolicy jittered = new RetryPolicy(2, 10000, 0.5, 6);
+        RetryPolicy capBelowFloor = new RetryPolicy(2, 500, 0, 6);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(jittered.getTimeout(1000, 1) >= 1000);
+            assertEquals(1000, capBelowFloor.getTimeout(1000, 1 + i % 6));
+        }
+        assertEquals(1, new RetryPolicy(2, 10000, 0, 6).getTimeout(0, 1));
+    }
+
+    @Test
+    public void attemptsStopAtTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(2, 10000, 0, 3);
+        assertTrue(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+    }
+
+}
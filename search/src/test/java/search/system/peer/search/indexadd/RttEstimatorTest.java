@@ -0,0 +1,37 @@
+package search.system.peer.search.indexadd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RttEstimatorTest {
+    @Test
+    public void defaultTimeoutIsUsedUntilAnRttIsSampled() {
+        RttEstimator estimator = new RttEstimator(1200);
+        assertEquals(3000, estimator.getTimeout(3000));
+        assertEquals(1200, estimator.getTimeout(500));
+    }
+
+    @Test
+    public void quickRepliesDontTakeTheTimeoutBelowTheFloor() {
+        RttEstimator estimator = new RttEstimator(1200);
+        for (int i = 0; i < 20; i++) {
+            estimator.sample(20);
+        }
+        assertEquals(1200, estimator.getTimeout(3000));
+        assertEquals(RttEstimator.MIN_TIMEOUT, new RttEstimator().getTimeout(0));
+    }
+
+    @Test
+    public void timeoutFollowsASlowerRtt() {
+        RttEstimator estimator = new RttEstimator(1200);
+        for (int i = 0; i < 20; i++) {
+            estimator.sample(20);
+        }
+        for (int i = 0; i < 100; i++) {
+            estimator.sample(2000);
+        }
+        long timeout = estimator.getTimeout(3000);
+        assertTrue(timeout >= 2000 && timeout <= 2050);
+    }
+}
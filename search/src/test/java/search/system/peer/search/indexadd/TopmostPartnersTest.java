@@ -0,0 +1,78 @@
+package search.system.peer.search.indexadd;
+
+import common.peer.PeerAddress;
+import org.junit.Test;
+import se.sics.kompics.address.Address;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TopmostPartnersTest {
+    private static PeerAddress peer(int id) throws UnknownHostException {
+        return new PeerAddress(new Address(InetAddress.getByName("127.0.0.1"), 8058, id), BigInteger.valueOf(id));
+    }
+
+    @Test
+    public void bestIsTheLowestIdHeld() throws UnknownHostException {
+        TopmostPartners partners = new TopmostPartners(4);
+        assertNull(partners.getBest());
+        partners.addAll(Arrays.asList(peer(30), peer(10), peer(20)));
+        assertEquals(peer(10), partners.getBest());
+        assertEquals(3, partners.size());
+    }
+
+    @Test
+    public void duplicatesAreHeldOnce() throws UnknownHostException {
+        TopmostPartners partners = new TopmostPartners(4);
+        partners.addAll(Arrays.asList(peer(10), peer(10), peer(20), peer(20)));
+        assertEquals(2, partners.size());
+    }
+
+    @Test
+    public void worstPeerIsEvictedWhenFull() throws UnknownHostException {
+        TopmostPartners partners = new TopmostPartners(3);
+        partners.addAll(Arrays.asList(peer(30), peer(20), peer(40)));
+
+        // No closer to the top than the worst held, so not added
+        partners.add(peer(50));
+        partners.add(peer(40));
+        assertEquals(3, partners.size());
+
+        // Closer to the top: 40 is evicted, and removing the rest leaves only the new peer
+        partners.add(peer(5));
+        assertEquals(3, partners.size());
+        assertEquals(peer(5), partners.getBest());
+        partners.remove(peer(5));
+        partners.remove(peer(20));
+        assertEquals(peer(30), partners.getBest());
+        partners.remove(peer(30));
+        assertNull(partners.getBest());
+        assertEquals(0, partners.size());
+    }
+
+    @Test
+    public void removingAnotherPeerKeepsTheBest() throws UnknownHostException {
+        TopmostPartners partners = new TopmostPartners(4);
+        partners.addAll(Arrays.asList(peer(10), peer(20), peer(30)));
+        partners.remove(peer(20));
+        partners.remove(peer(99));
+        assertEquals(peer(10), partners.getBest());
+        assertEquals(2, partners.size());
+
+        partners.remove(peer(10));
+        assertEquals(peer(30), partners.getBest());
+    }
+
+    @Test
+    public void sizeBoundIsAtLeastOne() throws UnknownHostException {
+        TopmostPartners partners = new TopmostPartners(0);
+        partners.add(peer(20));
+        partners.add(peer(10));
+        assertEquals(1, partners.size());
+        assertEquals(peer(10), partners.getBest());
+    }
+}
@@ -0,0 +1,117 @@
+package search.system.peer.search.indexexchange;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
+import search.system.peer.search.indexing.BenchmarkEntries;
+import search.system.peer.search.indexing.IndexEntry;
+import search.system.peer.search.indexing.IndexTokens;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the bytes per entry and the encode and decode throughput of IndexEntryCodec, for plain and pre-analyzed
+ * entries, against Java serialization of a list of the same entries
+ * Exchanged entries used to travel as lucene Documents, which aren't Serializable, so the comparison is with the
+ * cheapest Serializable form the same fields can have: one object of an id and two strings per entry
+ *
+ * Usage: IndexEntryCodecBenchmark [entries to encode per measurement]
+ */
+public class IndexEntryCodecBenchmark {
+    private static class SerializableEntry implements Serializable {
+        private final int indexId;
+        private final String key;
+        private final String value;
+
+        SerializableEntry(int indexId, String key, String value) {
+            this.indexId = indexId;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        BenchmarkEntries generator = new BenchmarkEntries(4, 3000);
+        StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+
+        for (int chunkSize : new int[]{16, 256}) {
+            List<IndexEntry> plain = generator.entries(50000, chunkSize);
+            List<IndexEntry> preAnalyzed = new ArrayList<IndexEntry>(chunkSize);
+            ArrayList<SerializableEntry> serializable = new ArrayList<SerializableEntry>(chunkSize);
+            long payload = 0;
+            for (IndexEntry entry : plain) {
+                preAnalyzed.add(new IndexEntry(entry.getIndexId(), entry.getKey(), entry.getValue(),
+                        IndexTokens.analyze(analyzer, "title", entry.getKey())));
+                serializable.add(new SerializableEntry(entry.getIndexId(), entry.getKey(), entry.getValue()));
+                payload += entry.getKey().length() + entry.getValue().length();
+            }
+            int iterations = Math.max(1, total / chunkSize);
+            System.out.println("chunks of " + chunkSize + ", " + String.format("%.1f", (double) payload / chunkSize) + " characters of key and value per entry");
+
+            // Run three times, and report the last run, after the JIT has warmed up
+            for (int run = 0; run < 3; run++) {
+                boolean report = run == 2;
+                measureSerialization(serializable, iterations, report);
+                measureCodec("codec", plain, iterations, report);
+                measureCodec("codec, pre-analyzed", preAnalyzed, iterations, report);
+            }
+        }
+    }
+
+    private static void measureCodec(String name, List<IndexEntry> entries, int iterations, boolean report) {
+        byte[] encoded = IndexEntryCodec.encode(entries);
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += IndexEntryCodec.encode(entries).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += IndexEntryCodec.decode(encoded).size();
+        }
+        long decodeNanos = System.nanoTime() - start;
+        if (report) {
+            print(name, encoded.length, entries.size(), iterations, encodeNanos, decodeNanos, sink);
+        }
+    }
+
+    private static void measureSerialization(ArrayList<SerializableEntry> entries, int iterations, boolean report) throws Exception {
+        byte[] serialized = serialize(entries);
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += serialize(entries).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += ((List<?>) new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject()).size();
+        }
+        long decodeNanos = System.nanoTime() - start;
+        if (report) {
+            print("java serialization", serialized.length, entries.size(), iterations, encodeNanos, decodeNanos, sink);
+        }
+    }
+
+    private static byte[] serialize(ArrayList<SerializableEntry> entries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(entries);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void print(String name, int bytes, int entries, int iterations, long encodeNanos, long decodeNanos, long sink) {
+        double million = (double) entries * iterations / 1e6;
+        System.out.println("  " + name + ": " + String.format("%.1f", (double) bytes / entries) + " bytes/entry, encode "
+                + String.format("%.2f", million * 1e9 / encodeNanos) + "M entries/s, decode "
+                + String.format("%.2f", million * 1e9 / decodeNanos) + "M entries/s" + (sink == 42 ? " " : ""));
+    }
+}
@@ -0,0 +1,103 @@
+package search.system.peer.search.indexexchange;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+import search.system.peer.search.indexing.IndexEntry;
+import search.system.peer.search.indexing.IndexTokens;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexEntryCodecTest {
+    private static List<IndexEntry> roundTrip(List<IndexEntry> entries) {
+        return IndexEntryCodec.decode(IndexEntryCodec.encode(entries));
+    }
+
+    private static void assertSameEntry(IndexEntry expected, IndexEntry actual) {
+        assertEquals(expected.getIndexId(), actual.getIndexId());
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getValue(), actual.getValue());
+        if (expected.getTokens() == null) {
+            assertNull(actual.getTokens());
+            return;
+        }
+        assertEquals(expected.getTokens().size(), actual.getTokens().size());
+        for (int i = 0; i < expected.getTokens().size(); i++) {
+            assertEquals(expected.getTokens().getTerm(i), actual.getTokens().getTerm(i));
+            assertEquals(expected.getTokens().getPositionIncrement(i), actual.getTokens().getPositionIncrement(i));
+        }
+    }
+
+    @Test
+    public void emptyListRoundTrips() {
+        byte[] encoded = IndexEntryCodec.encode(Collections.<IndexEntry>emptyList());
+        assertEquals(1, encoded.length);
+        assertTrue(IndexEntryCodec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    public void singleEntryRoundTrips() {
+        IndexEntry entry = new IndexEntry(42, "big cat", "magnet:1");
+        List<IndexEntry> decoded = roundTrip(Collections.singletonList(entry));
+        assertEquals(1, decoded.size());
+        assertSameEntry(entry, decoded.get(0));
+    }
+
+    @Test
+    public void idDeltasRoundTripAcrossVarIntSizes() {
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+        int[] ids = {1, 2, 129, 130, 20000, 3000000, Integer.MAX_VALUE};
+        for (int id : ids) {
+            entries.add(new IndexEntry(id, "k" + id, "v" + id));
+        }
+        List<IndexEntry> decoded = roundTrip(entries);
+        assertEquals(entries.size(), decoded.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameEntry(entries.get(i), decoded.get(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonAscendingIdsAreRejected() {
+        IndexEntryCodec.encode(Arrays.asList(new IndexEntry(5, "a", "b"), new IndexEntry(3, "c", "d")));
+    }
+
+    @Test
+    public void multiByteUtf8RoundTrips() {
+        // Two, three and four byte UTF-8 sequences
+        String key = "Bl\u00e5b\u00e4rssoppa \u6771\u4eac \ud83d\ude00";
+        IndexEntry entry = new IndexEntry(7, key, "v\u00e4rde");
+        List<IndexEntry> decoded = roundTrip(Collections.singletonList(entry));
+        assertSameEntry(entry, decoded.get(0));
+    }
+
+    @Test
+    public void preAnalyzedTokensRoundTrip() throws Exception {
+        String key = "The quick brown fox and the lazy dog";
+        IndexTokens tokens = IndexTokens.analyze(new StandardAnalyzer(Version.LUCENE_42), "title", key);
+        // Stop words are removed, so some terms have a position increment above one
+        boolean gap = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            gap |= tokens.getPositionIncrement(i) > 1;
+        }
+        assertTrue(gap);
+
+        List<IndexEntry> entries = Arrays.asList(new IndexEntry(1, key, "v1", tokens), new IndexEntry(2, "plain", "v2"));
+        List<IndexEntry> decoded = roundTrip(entries);
+        assertSameEntry(entries.get(0), decoded.get(0));
+        assertSameEntry(entries.get(1), decoded.get(1));
+    }
+
+    @Test
+    public void emptyTokenListIsDistinctFromNoTokens() {
+        IndexEntry entry = new IndexEntry(1, "the", "v", new IndexTokens(new String[0], new int[0]));
+        IndexEntry decoded = roundTrip(Collections.singletonList(entry)).get(0);
+        assertNotNull(decoded.getTokens());
+        assertEquals(0, decoded.getTokens().size());
+    }
+}
@@ -0,0 +1,69 @@
+package search.system.peer.search.indexing;
+
+import common.configuration.SearchConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic index entries and configurations shared by the benchmarks
+ * Titles are drawn from a fixed vocabulary with a skew towards the first words, like the titles of a real index
+ */
+public class BenchmarkEntries {
+    private final Random random;
+    private final String[] words;
+
+    public BenchmarkEntries(long seed, int vocabularySize) {
+        random = new Random(seed);
+        words = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            words[i] = Long.toString(random.nextLong() & 0xffffffL, 36);
+        }
+    }
+
+    public String word() {
+        return words[(int) Math.abs(random.nextGaussian() * words.length / 5) % words.length];
+    }
+
+    public String title(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(word());
+        }
+        return sb.toString();
+    }
+
+    public static String value(int indexId) {
+        return "magnet:?xt=urn:btih:" + Integer.toHexString(indexId * 0x9e3779b1) + "0123456789abcdef0123456789abcdef";
+    }
+
+    /**
+     * Return entries with the ids firstId to firstId + count - 1
+     */
+    public List<IndexEntry> entries(int firstId, int count) {
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(count);
+        for (int i = firstId; i < firstId + count; i++) {
+            entries.add(new IndexEntry(i, title(6), value(i)));
+        }
+        return entries;
+    }
+
+    /**
+     * Return a configuration with every optional mode off, storing partitions the given way
+     */
+    public static SearchConfiguration configuration(int partitions, String storage, String dataPath, boolean preAnalyzed) {
+        return new SearchConfiguration(1000, 32, 100, partitions, storage, dataPath, false, 0, 0, 256, 4, 0,
+                preAnalyzed, 1, 0, 10, 10000, 2, 60000, 0.2, 6, 10000, 300000);
+    }
+
+    /**
+     * Return the average time in microseconds of one of count operations that took nanos in total
+     */
+    public static String micros(long nanos, int count) {
+        return String.format("%.1f", (double) nanos / count / 1000);
+    }
+}
@@ -0,0 +1,140 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares serving a page of an index exchange from lucene, with a NumericRangeQuery and a stored field load per
+ * matched document as it used to be, against reading it from IndexEntryLog
+ * The log is filled both in id order and in shuffled order, since pushes and repairs deliver entries out of order
+ *
+ * Usage: EntryLogServeBenchmark [entries...]
+ */
+public class EntryLogServeBenchmark {
+    private static final int PAGES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            List<IndexEntry> entries = new BenchmarkEntries(3, 3000).entries(1, size);
+            IndexSearcher searcher = build(entries);
+            IndexEntryLog ordered = new IndexEntryLog();
+            for (IndexEntry entry : entries) {
+                ordered.append(entry);
+            }
+            List<IndexEntry> shuffled = new ArrayList<IndexEntry>(entries);
+            Collections.shuffle(shuffled, new Random(3));
+            IndexEntryLog unordered = new IndexEntryLog();
+            for (IndexEntry entry : shuffled) {
+                unordered.append(entry);
+            }
+
+            for (int pageSize : new int[]{16, 256}) {
+                // Run twice, and report the second run, after the JIT has warmed up
+                for (int run = 0; run < 2; run++) {
+                    long lucene = serveFromLucene(searcher, size, pageSize);
+                    long inOrder = serveFromLog(ordered, size, pageSize);
+                    long outOfOrder = serveFromLog(unordered, size, pageSize);
+                    if (run == 1) {
+                        System.out.println(size + " entries, pages of " + pageSize + ": lucene " + BenchmarkEntries.micros(lucene, PAGES)
+                                + " us, log in id order " + BenchmarkEntries.micros(inOrder, PAGES)
+                                + " us, log in arrival order " + BenchmarkEntries.micros(outOfOrder, PAGES) + " us");
+                    }
+                }
+            }
+            searcher.getIndexReader().close();
+        }
+    }
+
+    private static IndexSearcher build(List<IndexEntry> entries) throws Exception {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_42, new StandardAnalyzer(Version.LUCENE_42)));
+        for (IndexEntry entry : entries) {
+            Document doc = new Document();
+            doc.add(new TextField(IndexingService.FIELD_TITLE, entry.getKey(), Field.Store.YES));
+            doc.add(new StringField(IndexingService.FIELD_VALUE, entry.getValue(), Field.Store.YES));
+            doc.add(new IntField(IndexingService.FIELD_INDEX, entry.getIndexId(), Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        writer.commit();
+        // Segments are left unmerged, as a peer's near-real-time reader sees them
+        IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(writer, true));
+        writer.close();
+        return searcher;
+    }
+
+    private static long serveFromLucene(IndexSearcher searcher, int size, int pageSize) throws Exception {
+        Random random = new Random(4);
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            int afterIndex = random.nextInt(size - pageSize);
+            final List<Integer> docIds = new ArrayList<Integer>();
+            searcher.search(NumericRangeQuery.newIntRange(IndexingService.FIELD_INDEX, afterIndex, afterIndex + pageSize, false, true),
+                    new Collector() {
+                        private int docBase;
+
+                        public void setScorer(Scorer scorer) {
+                        }
+
+                        public void collect(int doc) {
+                            docIds.add(docBase + doc);
+                        }
+
+                        public void setNextReader(AtomicReaderContext context) {
+                            docBase = context.docBase;
+                        }
+
+                        public boolean acceptsDocsOutOfOrder() {
+                            return true;
+                        }
+                    });
+            for (int docId : docIds) {
+                Document doc = searcher.doc(docId);
+                sink += doc.get(IndexingService.FIELD_TITLE).length() + doc.get(IndexingService.FIELD_VALUE).length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return sink == 42 ? nanos + 1 : nanos;
+    }
+
+    private static long serveFromLog(IndexEntryLog log, int size, int pageSize) {
+        Random random = new Random(4);
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES; i++) {
+            int afterIndex = random.nextInt(size - pageSize);
+            for (IndexEntry entry : log.getEntries(afterIndex, afterIndex + pageSize)) {
+                sink += entry.getKey().length() + entry.getValue().length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return sink == 42 ? nanos + 1 : nanos;
+    }
+}
@@ -0,0 +1,117 @@
+package search.system.peer.search.indexing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IndexEntryLogTest {
+    private static IndexEntry entry(int indexId) {
+        return new IndexEntry(indexId, "key " + indexId, "value " + indexId);
+    }
+
+    @Test
+    public void duplicateIdsAreNotAppended() {
+        IndexEntryLog log = new IndexEntryLog();
+        assertTrue(log.append(entry(3)));
+        assertFalse(log.append(new IndexEntry(3, "other", "other")));
+        assertEquals(1, log.size());
+        assertEquals("key 3", log.getEntries(0, 10).get(0).getKey());
+    }
+
+    @Test
+    public void entriesAreReturnedInIdOrderWhateverTheArrivalOrder() {
+        IndexEntryLog log = new IndexEntryLog();
+        for (int indexId : new int[]{5, 1, 9, 3, 7}) {
+            log.append(entry(indexId));
+        }
+        List<IndexEntry> entries = log.getEntries(2, 8);
+        assertEquals(3, entries.size());
+        assertEquals(3, entries.get(0).getIndexId());
+        assertEquals(5, entries.get(1).getIndexId());
+        assertEquals(7, entries.get(2).getIndexId());
+        assertTrue(log.getEntries(9, 100).isEmpty());
+    }
+
+    @Test
+    public void preAnalyzedTokensAreKept() {
+        IndexEntryLog log = new IndexEntryLog();
+        log.append(new IndexEntry(1, "big cat", "v", new IndexTokens(new String[]{"big", "cat"}, new int[]{1, 1})));
+        IndexTokens tokens = log.getEntries(0, 1).get(0).getTokens();
+        assertEquals(2, tokens.size());
+        assertEquals("cat", tokens.getTerm(1));
+    }
+
+    @Test
+    public void sameIdsGiveSameDigestWhateverTheOrder() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int indexId = 1; indexId <= 500; indexId++) {
+            ids.add(indexId);
+        }
+        IndexEntryLog ordered = new IndexEntryLog();
+        for (int indexId : ids) {
+            ordered.append(entry(indexId));
+        }
+        Collections.shuffle(ids, new Random(1));
+        IndexEntryLog shuffled = new IndexEntryLog();
+        for (int indexId : ids) {
+            shuffled.append(entry(indexId));
+        }
+        for (int after = 0; after < 500; after += 37) {
+            assertEquals(ordered.getRangeDigest(after, after + 100), shuffled.getRangeDigest(after, after + 100));
+        }
+    }
+
+    @Test
+    public void missingIdChangesOnlyTheRangesHoldingIt() {
+        IndexEntryLog full = new IndexEntryLog();
+        IndexEntryLog missing = new IndexEntryLog();
+        for (int indexId = 1; indexId <= 100; indexId++) {
+            full.append(entry(indexId));
+            if (indexId != 42) {
+                missing.append(entry(indexId));
+            }
+        }
+        assertFalse(full.getRangeDigest(0, 100) == missing.getRangeDigest(0, 100));
+        assertFalse(full.getRangeDigest(40, 50) == missing.getRangeDigest(40, 50));
+        assertEquals(full.getRangeDigest(0, 41), missing.getRangeDigest(0, 41));
+        assertEquals(full.getRangeDigest(42, 100), missing.getRangeDigest(42, 100));
+    }
+
+    @Test
+    public void digestsSurviveOffsetTableGrowth() {
+        // The offset table and digest tree start at 4096 ids, and are rebuilt every time an id beyond them arrives
+        IndexEntryLog grown = new IndexEntryLog();
+        for (int indexId = 1; indexId <= 100; indexId++) {
+            grown.append(entry(indexId));
+        }
+        long before = grown.getRangeDigest(0, 100);
+        grown.append(entry(5000));
+        grown.append(entry(20000));
+        grown.append(entry(70000));
+        assertEquals(before, grown.getRangeDigest(0, 100));
+
+        // A log that was sized for the high ids from the start holds the same digests
+        IndexEntryLog direct = new IndexEntryLog();
+        direct.append(entry(70000));
+        direct.append(entry(20000));
+        direct.append(entry(5000));
+        for (int indexId = 100; indexId >= 1; indexId--) {
+            direct.append(entry(indexId));
+        }
+        int[] bounds = {0, 50, 100, 4095, 4096, 5000, 10000, 20000, 65536, 70000, 100000};
+        for (int i = 0; i < bounds.length; i++) {
+            for (int j = i + 1; j < bounds.length; j++) {
+                assertEquals(direct.getRangeDigest(bounds[i], bounds[j]), grown.getRangeDigest(bounds[i], bounds[j]));
+            }
+        }
+        assertEquals(direct.getRangeDigest(100, 4999), 0);
+        assertFalse(grown.getRangeDigest(4999, 5000) == 0);
+        assertEquals(103, grown.size());
+        assertEquals(3, grown.getEntries(100, Integer.MAX_VALUE).size());
+    }
+}
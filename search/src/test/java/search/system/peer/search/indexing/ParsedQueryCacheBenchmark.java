@@ -0,0 +1,65 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.util.Version;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Compares parsing every query of a query log with a new QueryParser, as IndexingService used to, against
+ * ParsedQueryCache at the size IndexingService uses and at a larger size
+ * querylog.txt holds 10,000 queries, 1,676 of them distinct, repeated with a Zipf distribution. It mixes terms,
+ * phrases, prefixes, boolean and id clauses, and a few queries with extra whitespace
+ *
+ * Usage: ParsedQueryCacheBenchmark [query log resource]
+ */
+public class ParsedQueryCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        List<String> log = readLog(args.length > 0 ? args[0] : "/querylog.txt");
+        System.out.println(log.size() + " queries, " + new HashSet<String>(log).size() + " distinct");
+
+        StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+        // Run three times, and report the last run, after the JIT has warmed up
+        for (int run = 0; run < 3; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (String query : log) {
+                sink += new QueryParser(Version.LUCENE_42, IndexingService.FIELD_TITLE, analyzer).parse(query).hashCode();
+            }
+            long parserPerQuery = System.nanoTime() - start;
+
+            StringBuilder report = new StringBuilder("new parser per query " + BenchmarkEntries.micros(parserPerQuery, log.size()) + " us");
+            for (int maxEntries : new int[]{256, 4096}) {
+                ParsedQueryCache cache = new ParsedQueryCache(maxEntries, IndexingService.FIELD_TITLE, analyzer);
+                start = System.nanoTime();
+                for (String query : log) {
+                    sink += cache.parse(ParsedQueryCache.normalize(query)).hashCode();
+                }
+                long cached = System.nanoTime() - start;
+                report.append(", cache of ").append(maxEntries).append(' ').append(BenchmarkEntries.micros(cached, log.size())).append(" us");
+            }
+            if (run == 2) {
+                System.out.println(report + (sink == 42 ? " " : ""));
+            }
+        }
+    }
+
+    private static List<String> readLog(String resource) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ParsedQueryCacheBenchmark.class.getResourceAsStream(resource), "UTF-8"));
+        try {
+            List<String> log = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                log.add(line);
+            }
+            return log;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParsedQueryCacheTest {
+    private ParsedQueryCache createCache(int maxEntries) {
+        return new ParsedQueryCache(maxEntries, IndexingService.FIELD_TITLE, new StandardAnalyzer(Version.LUCENE_42));
+    }
+
+    @Test
+    public void normalizeTrimsAndCollapsesWhitespaceBetweenTerms() {
+        assertEquals("foo bar", ParsedQueryCache.normalize("  foo \t\n  bar "));
+        assertEquals("foo", ParsedQueryCache.normalize("foo"));
+        assertEquals("", ParsedQueryCache.normalize("   "));
+    }
+
+    @Test
+    public void normalizeKeepsQuotedPhrasesVerbatim() {
+        assertEquals("title:\"big   cat\" dog", ParsedQueryCache.normalize("title:\"big   cat\"   dog"));
+        assertEquals("\"a  b", ParsedQueryCache.normalize("\"a  b"));
+    }
+
+    @Test
+    public void normalizeKeepsRegexpsAndEscapedCharactersVerbatim() {
+        assertEquals("/a  b/ c", ParsedQueryCache.normalize("/a  b/   c"));
+        assertEquals("id:foo\\  bar", ParsedQueryCache.normalize("id:foo\\  bar"));
+        assertEquals("a\\\" b", ParsedQueryCache.normalize("a\\\"   b"));
+    }
+
+    @Test
+    public void repeatedQueryIsParsedOnce() throws Exception {
+        ParsedQueryCache cache = createCache(4);
+        Query first = cache.parse("big cat");
+        assertSame(first, cache.parse("big cat"));
+        assertSame(first, cache.parse(ParsedQueryCache.normalize("  big    cat ")));
+    }
+
+    @Test
+    public void phraseWhitespaceDoesNotShareAnEntryWithOtherQueries() throws Exception {
+        ParsedQueryCache cache = createCache(4);
+        Query phrase = cache.parse(ParsedQueryCache.normalize("\"big cat\""));
+        Query terms = cache.parse(ParsedQueryCache.normalize("big cat"));
+        assertTrue(phrase instanceof PhraseQuery);
+        assertNotSame(phrase, terms);
+    }
+
+    @Test
+    public void leastRecentlyUsedQueryIsEvicted() throws Exception {
+        ParsedQueryCache cache = createCache(2);
+        Query a = cache.parse("a1");
+        Query b = cache.parse("b1");
+        assertSame(a, cache.parse("a1"));
+        cache.parse("c1");
+        assertSame(a, cache.parse("a1"));
+        assertNotSame(b, cache.parse("b1"));
+    }
+}
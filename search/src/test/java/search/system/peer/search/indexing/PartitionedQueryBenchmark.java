@@ -0,0 +1,61 @@
+package search.system.peer.search.indexing;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Measures query throughput of IndexingService with the local index split into 1, 2, 4 and 8 partitions
+ * Queries are mostly distinct, so that the query result cache rarely answers them. The partitions of a query are
+ * searched on a pool with one thread per available processor, so any speedup is bounded by the processor count
+ * All partition counts are run twice, and the second run is reported, so that the first one isn't slowed by the JIT
+ *
+ * Usage: PartitionedQueryBenchmark [entries] [queries]
+ */
+public class PartitionedQueryBenchmark {
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        BenchmarkEntries generator = new BenchmarkEntries(5, 3000);
+        List<IndexEntry> entries = generator.entries(1, size);
+        String[] queries = new String[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            queries[i] = i % 2 == 0 ? generator.word() + " " + generator.word() : generator.word() + " OR " + generator.word();
+        }
+        int warmup = queryCount / 10;
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + size + " entries, "
+                + (queryCount - warmup) + " timed queries");
+        for (int run = 0; run < 2; run++) {
+            for (int partitions : new int[]{1, 2, 4, 8}) {
+                long nanos = run(entries, queries, warmup, partitions);
+                if (run == 1) {
+                    System.out.println(partitions + " partitions: " + (long) ((queryCount - warmup) * 1e9 / nanos) + " queries/s, "
+                            + BenchmarkEntries.micros(nanos, queryCount - warmup) + " us/query");
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Index the entries into the given number of partitions, and return the time in ns the queries after warmup took
+     */
+    private static long run(List<IndexEntry> entries, String[] queries, int warmup, int partitions) throws Exception {
+        IndexingService indexingService = new IndexingService(BenchmarkEntries.configuration(partitions, "ram", null, false),
+                BigInteger.valueOf(partitions));
+        for (int i = 0; i < entries.size(); i += 1000) {
+            indexingService.addEntries(entries.subList(i, Math.min(entries.size(), i + 1000)));
+        }
+
+        long hits = 0;
+        for (int i = 0; i < warmup; i++) {
+            hits += indexingService.query(queries[i], 0, 10, null).getTotalHits();
+        }
+        long start = System.nanoTime();
+        for (int i = warmup; i < queries.length; i++) {
+            hits += indexingService.query(queries[i], 0, 10, null).getTotalHits();
+        }
+        long nanos = System.nanoTime() - start;
+        return hits == 42 ? nanos + 1 : nanos;
+    }
+}
@@ -0,0 +1,70 @@
+package search.system.peer.search.indexing;
+
+import common.configuration.SearchConfiguration;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
+import search.system.peer.search.indexexchange.IndexEntryCodec;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time a receiving peer takes to index entries it has to analyze itself, against entries carrying
+ * the tokens of the leader's analysis, and the extra bytes per entry the tokens cost on the wire
+ * The leader's one-off analysis is reported too. Entries are added in batches of an exchange chunk
+ *
+ * Usage: PreAnalyzedIndexingBenchmark [entries]
+ */
+public class PreAnalyzedIndexingBenchmark {
+    private static final int BATCH = 256;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        SearchConfiguration configuration = BenchmarkEntries.configuration(1, SearchConfiguration.STORAGE_RAM, "", false);
+        StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+        List<IndexEntry> plain = new BenchmarkEntries(6, 3000).entries(1, size);
+
+        // Run twice, and report the second run, after the JIT has warmed up
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            List<IndexEntry> preAnalyzed = new ArrayList<IndexEntry>(size);
+            for (IndexEntry entry : plain) {
+                preAnalyzed.add(new IndexEntry(entry.getIndexId(), entry.getKey(), entry.getValue(),
+                        IndexTokens.analyze(analyzer, IndexingService.FIELD_TITLE, entry.getKey())));
+            }
+            long analysis = System.nanoTime() - start;
+
+            long analyzedIndexing = index(configuration, plain);
+            long preAnalyzedIndexing = index(configuration, preAnalyzed);
+
+            if (run == 1) {
+                System.out.println(size + " entries: leader analysis " + BenchmarkEntries.micros(analysis, size) + " us per entry");
+                System.out.println("receiver indexing, analyzed " + BenchmarkEntries.micros(analyzedIndexing, size)
+                        + " us per entry, pre-analyzed " + BenchmarkEntries.micros(preAnalyzedIndexing, size) + " us per entry");
+                System.out.println("encoded, analyzed " + bytesPerEntry(plain) + " bytes per entry, pre-analyzed "
+                        + bytesPerEntry(preAnalyzed) + " bytes per entry");
+            }
+        }
+    }
+
+    /**
+     * Return the time in ns a new peer takes to add the entries, one exchange chunk at a time
+     */
+    private static long index(SearchConfiguration configuration, List<IndexEntry> entries) throws Exception {
+        IndexingService indexingService = new IndexingService(configuration, BigInteger.ONE);
+        long start = System.nanoTime();
+        for (int i = 0; i < entries.size(); i += BATCH) {
+            indexingService.addEntries(entries.subList(i, Math.min(i + BATCH, entries.size())));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String bytesPerEntry(List<IndexEntry> entries) {
+        long bytes = 0;
+        for (int i = 0; i < entries.size(); i += BATCH) {
+            bytes += IndexEntryCodec.encode(entries.subList(i, Math.min(i + BATCH, entries.size()))).length;
+        }
+        return String.format("%.1f", (double) bytes / entries.size());
+    }
+}
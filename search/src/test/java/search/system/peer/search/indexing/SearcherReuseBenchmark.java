@@ -0,0 +1,145 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares a steady add and search load on one IndexWriter with a near-real-time searcher, against the previous
+ * IndexingService, which opened an IndexWriter for every add and a DirectoryReader for every query
+ * Also times reopening the near-real-time searcher after an add, which is the refresh latency of the new scheme
+ *
+ * Usage: SearcherReuseBenchmark [initial entries] [operations]
+ */
+public class SearcherReuseBenchmark {
+    public static void main(String[] args) throws Exception {
+        int initial = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        BenchmarkEntries generator = new BenchmarkEntries(1, 3000);
+        List<IndexEntry> entries = generator.entries(1, initial + operations);
+        String[] queries = new String[operations];
+        for (int i = 0; i < operations; i++) {
+            queries[i] = generator.word();
+        }
+
+        System.out.println("initial entries " + initial + ", " + operations + " operations per mix");
+        for (int queriesPerAdd : new int[]{1, 10}) {
+            // Run each mix twice, and report the second run, after the JIT has warmed up
+            for (int run = 0; run < 2; run++) {
+                long before = runPerCallReaders(entries, initial, queries, queriesPerAdd);
+                long after = runSearcherManager(entries, initial, queries, queriesPerAdd);
+                if (run == 1) {
+                    System.out.println(queriesPerAdd + " queries per add: writer and reader per call "
+                            + BenchmarkEntries.micros(before, operations) + " us/op, one writer and NRT searcher "
+                            + BenchmarkEntries.micros(after, operations) + " us/op");
+                }
+            }
+        }
+
+        IndexPartition partition = new IndexPartition(new RAMDirectory(), new StandardAnalyzer(Version.LUCENE_42));
+        for (IndexEntry entry : entries.subList(0, initial)) {
+            partition.addDocuments(Collections.singletonList(createDocument(entry)));
+        }
+        partition.releaseSearcher(partition.acquireSearcher());
+        long reopenNanos = 0;
+        for (int i = 0; i < operations; i++) {
+            partition.addDocuments(Collections.singletonList(createDocument(entries.get(initial + i))));
+            long start = System.nanoTime();
+            IndexSearcher searcher = partition.acquireSearcher();
+            reopenNanos += System.nanoTime() - start;
+            partition.releaseSearcher(searcher);
+        }
+        partition.close();
+        System.out.println("near-real-time reopen after one add: " + BenchmarkEntries.micros(reopenNanos, operations) + " us");
+    }
+
+    private static Document createDocument(IndexEntry entry) {
+        Document doc = new Document();
+        doc.add(new TextField(IndexingService.FIELD_TITLE, entry.getKey(), Field.Store.YES));
+        doc.add(new StringField(IndexingService.FIELD_VALUE, entry.getValue(), Field.Store.YES));
+        doc.add(new IntField(IndexingService.FIELD_INDEX, entry.getIndexId(), Field.Store.YES));
+        return doc;
+    }
+
+    /**
+     * The previous scheme: every add opens and closes a writer, every query opens a reader
+     */
+    private static long runPerCallReaders(List<IndexEntry> entries, int initial, String[] queries, int queriesPerAdd) throws Exception {
+        StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_42);
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_42, analyzer));
+        for (IndexEntry entry : entries.subList(0, initial)) {
+            writer.addDocument(createDocument(entry));
+        }
+        writer.close();
+
+        long sink = 0;
+        int added = initial;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            if (i % (queriesPerAdd + 1) == 0) {
+                IndexWriter w = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_42, analyzer));
+                w.addDocument(createDocument(entries.get(added++)));
+                w.close();
+                continue;
+            }
+            Query q = new QueryParser(Version.LUCENE_42, IndexingService.FIELD_TITLE, analyzer).parse(queries[i]);
+            DirectoryReader reader = DirectoryReader.open(directory);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopScoreDocCollector collector = TopScoreDocCollector.create(10, true);
+            searcher.search(q, collector);
+            for (ScoreDoc hit : collector.topDocs().scoreDocs) {
+                sink += searcher.doc(hit.doc).get(IndexingService.FIELD_VALUE).length();
+            }
+            reader.close();
+        }
+        long nanos = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return nanos;
+    }
+
+    /**
+     * The current scheme, through IndexingService with a single partition on the heap
+     */
+    private static long runSearcherManager(List<IndexEntry> entries, int initial, String[] queries, int queriesPerAdd) throws Exception {
+        IndexingService indexingService = new IndexingService(BenchmarkEntries.configuration(1, "ram", null, false), BigInteger.ONE);
+        indexingService.addEntries(entries.subList(0, initial));
+
+        long sink = 0;
+        int added = initial;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            if (i % (queriesPerAdd + 1) == 0) {
+                indexingService.addEntries(Collections.singletonList(entries.get(added++)));
+                continue;
+            }
+            for (SearchHit hit : indexingService.query(queries[i], 0, 10, null).getHits()) {
+                sink += hit.getValue().length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return nanos;
+    }
+}
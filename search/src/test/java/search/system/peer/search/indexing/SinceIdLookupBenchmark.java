@@ -0,0 +1,102 @@
+package search.system.peer.search.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Compares looking up the entries after an index id with the id stored as a zero-padded string and the range parsed
+ * by QueryParser, as it used to be, against the id stored as an IntField and looked up with a NumericRangeQuery
+ * A padded string can only hold 99,999 ids at 5 digits, so indexes larger than that are padded to 7 digits
+ * The parsed range includes the since id, like the previous lookup did, so it matches one entry more
+ *
+ * Usage: SinceIdLookupBenchmark [entries...]
+ */
+public class SinceIdLookupBenchmark {
+    private static final int LOOKUPS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            String format = size < 100000 ? "%05d" : "%07d";
+            IndexSearcher stringIds = build(size, format);
+            IndexSearcher numericIds = build(size, null);
+            for (int behind : new int[]{10, 1000}) {
+                int since = size - behind;
+                Query numeric = NumericRangeQuery.newIntRange(IndexingService.FIELD_INDEX, since, null, false, true);
+                // Run twice, and report the second run, after the JIT has warmed up
+                long before = 0;
+                long after = 0;
+                for (int run = 0; run < 2; run++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < LOOKUPS; i++) {
+                        String range = "index:[" + String.format(format, since) + " TO " + String.format(format, 0).replace('0', '9') + "]";
+                        count(stringIds, new QueryParser(Version.LUCENE_42, IndexingService.FIELD_TITLE,
+                                new StandardAnalyzer(Version.LUCENE_42)).parse(range), behind + 1);
+                    }
+                    before = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (int i = 0; i < LOOKUPS; i++) {
+                        count(numericIds, numeric, behind);
+                    }
+                    after = System.nanoTime() - start;
+                }
+                System.out.println(size + " entries, " + behind + " behind: padded string " + format + " "
+                        + BenchmarkEntries.micros(before, LOOKUPS) + " us, numeric " + BenchmarkEntries.micros(after, LOOKUPS) + " us");
+            }
+            stringIds.getIndexReader().close();
+            numericIds.getIndexReader().close();
+        }
+    }
+
+    /**
+     * Build an index of size entries, with the id stored as a string padded to format, or as an IntField if format is null
+     */
+    private static IndexSearcher build(int size, String format) throws Exception {
+        BenchmarkEntries generator = new BenchmarkEntries(2, 3000);
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_42, new StandardAnalyzer(Version.LUCENE_42)));
+        for (int i = 1; i <= size; i++) {
+            Document doc = new Document();
+            doc.add(new TextField(IndexingService.FIELD_TITLE, generator.title(3), Field.Store.YES));
+            doc.add(new StringField(IndexingService.FIELD_VALUE, BenchmarkEntries.value(i), Field.Store.YES));
+            if (format == null) {
+                doc.add(new IntField(IndexingService.FIELD_INDEX, i, Field.Store.YES));
+            } else {
+                doc.add(new StringField(IndexingService.FIELD_INDEX, String.format(format, i), Field.Store.YES));
+            }
+            writer.addDocument(doc);
+        }
+        writer.forceMerge(1);
+        writer.close();
+        return new IndexSearcher(DirectoryReader.open(directory));
+    }
+
+    private static void count(IndexSearcher searcher, Query q, int expected) throws Exception {
+        TotalHitCountCollector collector = new TotalHitCountCollector();
+        searcher.search(q, collector);
+        if (collector.getTotalHits() != expected) {
+            throw new IllegalStateException("Expected " + expected + " hits, got " + collector.getTotalHits());
+        }
+    }
+}
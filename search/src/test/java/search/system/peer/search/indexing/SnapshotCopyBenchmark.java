@@ -0,0 +1,73 @@
+package search.system.peer.search.indexing;
+
+import common.configuration.SearchConfiguration;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Compares catching up an empty peer by indexing every entry, as incremental exchanges do, against copying a
+ * snapshot of a partner's index files chunk by chunk, staging them and installing them
+ * Only the local work is measured. Both sides are in memory, and the snapshot is read in the chunks it is sent in
+ *
+ * Usage: SnapshotCopyBenchmark [entries...]
+ */
+public class SnapshotCopyBenchmark {
+    private static final int BATCH = 256;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final SearchConfiguration CONFIGURATION = BenchmarkEntries.configuration(1, SearchConfiguration.STORAGE_RAM, "", false);
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            List<IndexEntry> entries = new BenchmarkEntries(5, 3000).entries(1, size);
+            IndexingService source = index(entries);
+
+            // Run twice, and report the second run, after the JIT has warmed up
+            for (int run = 0; run < 2; run++) {
+                long start = System.nanoTime();
+                index(entries);
+                long reindex = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                IndexSnapshot snapshot = source.createSnapshot(CHUNK_BYTES);
+                IndexingService target = new IndexingService(CONFIGURATION, BigInteger.TEN);
+                StagedIndexSnapshot staged = target.stageSnapshot(snapshot.getMaxLuceneIndex());
+                for (int chunk = 0; chunk < snapshot.getChunkCount(); chunk++) {
+                    IndexSnapshotFile file = snapshot.getChunkFile(chunk);
+                    byte[] bytes = source.readSnapshotChunk(snapshot, chunk);
+                    staged.write(file.getPartition(), file.getName(), bytes, bytes.length);
+                }
+                source.releaseSnapshot(snapshot);
+                if (!target.installSnapshot(staged) || target.getContiguousIndex() != size) {
+                    throw new IllegalStateException("Snapshot wasn't installed");
+                }
+                long copy = System.nanoTime() - start;
+
+                if (run == 1) {
+                    System.out.println(size + " entries: indexing " + millis(reindex) + " ms, snapshot of " + snapshot.getBytes()
+                            + " bytes in " + snapshot.getChunkCount() + " chunks " + millis(copy) + " ms");
+                }
+            }
+        }
+    }
+
+    private static IndexingService index(List<IndexEntry> entries) throws Exception {
+        IndexingService indexingService = new IndexingService(CONFIGURATION, BigInteger.ONE);
+        for (int i = 0; i < entries.size(); i += BATCH) {
+            indexingService.addEntries(entries.subList(i, Math.min(i + BATCH, entries.size())));
+        }
+        return indexingService;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
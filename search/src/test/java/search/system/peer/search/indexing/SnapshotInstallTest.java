@@ -0,0 +1,146 @@
+package search.system.peer.search.indexing;
+
+import common.configuration.SearchConfiguration;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SnapshotInstallTest {
+    private static final SearchConfiguration RAM = BenchmarkEntries.configuration(2, SearchConfiguration.STORAGE_RAM, "", false);
+
+    private static IndexingService filled(SearchConfiguration configuration, BigInteger peerId, int entries) throws IOException {
+        IndexingService indexingService = new IndexingService(configuration, peerId);
+        indexingService.addEntries(new BenchmarkEntries(1, 100).entries(1, entries));
+        return indexingService;
+    }
+
+    /**
+     * Stage all chunks of a snapshot of source into target, the way they would arrive from a partner
+     * Small chunks split most files into several of them
+     */
+    private static StagedIndexSnapshot stage(IndexingService source, IndexingService target) throws IOException {
+        IndexSnapshot snapshot = source.createSnapshot(1000);
+        StagedIndexSnapshot staged = target.stageSnapshot(snapshot.getMaxLuceneIndex());
+        for (int chunk = 0; chunk < snapshot.getChunkCount(); chunk++) {
+            IndexSnapshotFile file = snapshot.getChunkFile(chunk);
+            byte[] bytes = source.readSnapshotChunk(snapshot, chunk);
+            staged.write(file.getPartition(), file.getName(), bytes, bytes.length);
+        }
+        source.releaseSnapshot(snapshot);
+        return staged;
+    }
+
+    @Test
+    public void snapshotReplacesIndexHoldingOnlyPushedEntries() throws IOException {
+        IndexingService source = filled(RAM, BigInteger.ONE, 500);
+        IndexingService target = new IndexingService(RAM, BigInteger.TEN);
+        target.addEntries(new BenchmarkEntries(2, 100).entries(700, 1));
+
+        assertTrue(target.installSnapshot(stage(source, target)));
+        assertEquals(500, target.getMaxLuceneIndex());
+        assertEquals(500, target.getContiguousIndex());
+        assertEquals(source.getRangeDigest(0, 500), target.getRangeDigest(0, 500));
+        assertTrue(target.getEntries(500, 1000).isEmpty());
+    }
+
+    @Test
+    public void snapshotIsRefusedByIndexThatIsNotEmpty() throws IOException {
+        IndexingService source = filled(RAM, BigInteger.ONE, 500);
+        IndexingService target = filled(RAM, BigInteger.TEN, 10);
+
+        assertFalse(target.installSnapshot(stage(source, target)));
+        assertEquals(10, target.getMaxLuceneIndex());
+        assertEquals(10, target.getEntries(0, 1000).size());
+    }
+
+    @Test
+    public void snapshotIsSplitIntoChunksCoveringEveryFile() throws IOException {
+        IndexingService source = filled(RAM, BigInteger.ONE, 500);
+        source.addEntries(new BenchmarkEntries(2, 100).entries(501, 500));
+        IndexSnapshot snapshot = source.createSnapshot(1000);
+
+        int chunks = 0;
+        long bytes = 0;
+        for (IndexSnapshotFile file : snapshot.getFiles()) {
+            assertEquals(chunks, file.getFirstChunk());
+            assertSame(file, snapshot.getChunkFile(chunks));
+            chunks += Math.max(1, (file.getLength() + 999) / 1000);
+            bytes += file.getLength();
+        }
+        assertEquals(chunks, snapshot.getChunkCount());
+        assertEquals(bytes, snapshot.getBytes());
+        assertEquals(1000, snapshot.getMaxLuceneIndex());
+
+        // The files of the snapshot's commit stay readable while newer commits are made
+        source.addEntries(new BenchmarkEntries(3, 100).entries(1001, 500));
+        IndexSnapshot newer = source.createSnapshot(1000);
+
+        long read = 0;
+        for (int chunk = 0; chunk < snapshot.getChunkCount(); chunk++) {
+            read += source.readSnapshotChunk(snapshot, chunk).length;
+        }
+        assertEquals(bytes, read);
+        source.releaseSnapshot(snapshot);
+        source.releaseSnapshot(newer);
+    }
+
+    @Test
+    public void failedInstallKeepsCurrentIndex() throws IOException {
+        IndexingService target = new IndexingService(RAM, BigInteger.TEN);
+        target.addEntries(new BenchmarkEntries(2, 100).entries(700, 1));
+
+        StagedIndexSnapshot staged = target.stageSnapshot(500);
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0x5a);
+        staged.write(0, "segments_1", garbage, garbage.length);
+        staged.write(0, "segments.gen", garbage, garbage.length);
+        try {
+            target.installSnapshot(staged);
+            fail("A corrupt snapshot was installed");
+        } catch (IOException expected) {
+        }
+
+        assertEquals(700, target.getMaxLuceneIndex());
+        assertEquals(1, target.getEntries(0, 1000).size());
+        target.addEntries(new BenchmarkEntries(3, 100).entries(1, 1));
+        assertEquals(1, target.getContiguousIndex());
+    }
+
+    @Test
+    public void installedSnapshotIsOpenedAfterRestart() throws IOException {
+        File dataPath = File.createTempFile("snapshot-install", "");
+        assertTrue(dataPath.delete() && dataPath.mkdir());
+        try {
+            SearchConfiguration mmap = BenchmarkEntries.configuration(2, SearchConfiguration.STORAGE_MMAP, dataPath.getPath(), false);
+            IndexingService source = filled(mmap, BigInteger.ONE, 500);
+            IndexingService target = new IndexingService(mmap, BigInteger.TEN);
+
+            assertTrue(target.installSnapshot(stage(source, target)));
+            assertFalse(new File(dataPath, "peer-10" + File.separator + "partition-0").exists());
+            target.close();
+            source.close();
+
+            IndexingService restarted = new IndexingService(mmap, BigInteger.TEN);
+            assertEquals(500, restarted.getMaxLuceneIndex());
+            assertEquals(500, restarted.getContiguousIndex());
+            restarted.close();
+        } finally {
+            delete(dataPath);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}